@@ -0,0 +1,25 @@
+/**
+ * Description of this file : one request of the actions file, with the fields its kind uses.
+ */
+
+// one parsed line of the actions file; reused from line to line
+class Action {
+
+    enum Kind {
+        ADD_CUSTOMER, RECOMMEND_SONGS, PRINT_CUSTOMER_DISTANCE_RATINGS, UPDATE_RATING, REMOVE_CUSTOMER, SAVE_SNAPSHOT,
+        WRONG_QUERY
+    }
+
+    Kind kind;
+    String name; // customer of AddCustomer, UpdateRating and RemoveCustomer, or of RecommendSongs when one is named
+    final RatingRow row = new RatingRow(); // ratings of AddCustomer
+    int song, value; // 0 based song and new rating of UpdateRating
+    String line; // the request itself, echoed for AddCustomer, UpdateRating and RemoveCustomer
+    String fileName;
+    int lineNumber;
+
+    // error pointing at the line of this action
+    public IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(fileName + ":" + lineNumber + ": " + message);
+    }
+}
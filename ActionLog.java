@@ -0,0 +1,253 @@
+/**
+ * Description of this file : append-only log of the requests that changed the customers or the heap.
+ * Every AddCustomer, UpdateRating, RemoveCustomer and every RecommendSongs that removed customers from the heap is
+ * appended with the number of its line in the actions file; records are written in groups and forced to disk once
+ * per group.
+ * A restart loads the last snapshot (the checkpoint) and replays only the records after it, so its cost follows the
+ * changes since the last checkpoint instead of the whole history. A record cut short by a crash ends the replay.
+ *
+ * record : int length | byte kind | long action number | payload | int CRC32C of kind, number and payload
+ */
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+// writer and replayer of the change log
+class ActionLog implements Closeable {
+
+    static final byte ADD_CUSTOMER = 1;
+    static final byte RECOMMEND_SONGS = 2; // RecommendSongs that removed customers from the heap
+    static final byte PROGRESS = 3; // number of actions answered, written with every group
+    static final byte UPDATE_RATING = 4;
+    static final byte REMOVE_CUSTOMER = 5;
+
+    private static final int MAX_RECORD = 1 << 26;
+
+    private final String fileName;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16); // records not written yet
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+    private final DataOutputStream body = new DataOutputStream(record);
+    private final CRC32C crc = new CRC32C();
+    private int pending; // records since the last sync
+    private long sinceCheckpoint; // changes since the log was last emptied
+
+    private ActionLog(File file) throws IOException {
+        fileName = file.getName();
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+    }
+
+    // replay the records of file after the actions the session already holds, then open it for appending.
+    // a damaged or incomplete record at the end is cut off; the session's action count moves past the replay.
+    static ActionLog open(File file, Session session) throws IOException {
+        long good = 0; // bytes of complete records
+        long replayed = 0;
+        if (file.exists()) {
+            try (InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16)) {
+                DataInputStream data = new DataInputStream(in);
+                RatingRow row = new RatingRow();
+                CRC32C check = new CRC32C();
+                byte[] bytes = new byte[256];
+                while (true) {
+                    int length;
+                    try {
+                        length = data.readInt();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    if (length < 9 || length > MAX_RECORD) break;
+                    if (bytes.length < length) bytes = new byte[Math.max(length, bytes.length * 2)];
+                    int sum;
+                    try {
+                        data.readFully(bytes, 0, length);
+                        sum = data.readInt();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    check.reset();
+                    check.update(bytes, 0, length);
+                    if ((int) check.getValue() != sum) break;
+                    if (apply(ByteBuffer.wrap(bytes, 0, length), session, row)) replayed++;
+                    good += 8 + length;
+                }
+            }
+        }
+        ActionLog log = new ActionLog(file);
+        if (log.channel.size() > good) { // torn tail of a crash
+            System.err.println(log.fileName + ": dropped " + (log.channel.size() - good) + " bytes of an incomplete record");
+            log.channel.truncate(good);
+            log.channel.position(good);
+        }
+        log.sinceCheckpoint = replayed;
+        return log;
+    }
+
+    // apply one record to the session if it comes after the actions the session holds; true if it was applied
+    private static boolean apply(ByteBuffer in, Session session, RatingRow row) {
+        byte kind = in.get();
+        long action = in.getLong();
+        if (action <= session.actionsDone) return false; // already in the snapshot
+        switch (kind) {
+            case ADD_CUSTOMER:
+                byte[] name = new byte[in.getInt()];
+                in.get(name);
+                int width = in.getInt();
+                row.clear();
+                for (int i = in.getInt(); i > 0; i--) row.add(in.getInt(), in.getInt());
+                row.width = width;
+                int id = RecommendationSystem.addCus(new String(name, StandardCharsets.UTF_8), row, session.store,
+                        session.customerList, session.targetCus, session.heap);
+                session.neighbours.customerAdded(id);
+                break;
+            case RECOMMEND_SONGS:
+                RecommendationSystem.recommendSongs(session.heap, session.store, session.targetCus, false);
+                break;
+            case UPDATE_RATING:
+                RecommendationSystem.updateRating(in.getInt(), in.getInt(), in.getInt(), session.store, session.targetCus, session.heap);
+                session.neighbours.clear();
+                break;
+            case REMOVE_CUSTOMER:
+                RecommendationSystem.removeCus(in.getInt(), session.store, session.customerList, session.heap);
+                session.neighbours.clear();
+                break;
+            case PROGRESS:
+                break;
+            default:
+                throw new IllegalArgumentException("unknown log record kind " + kind);
+        }
+        session.actionsDone = action;
+        return kind != PROGRESS;
+    }
+
+    // AddCustomer applied as action number action
+    public void addCustomer(long action, String name, RatingRow row) {
+        try {
+            start(ADD_CUSTOMER, action);
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            body.writeInt(bytes.length);
+            body.write(bytes);
+            body.writeInt(row.width);
+            body.writeInt(row.count);
+            for (int i = 0; i < row.count; i++) {
+                body.writeInt(row.songs[i]);
+                body.writeInt(row.values[i]);
+            }
+            end(true);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // RecommendSongs that removed customers from the heap, as action number action
+    public void recommendSongs(long action) {
+        try {
+            start(RECOMMEND_SONGS, action);
+            end(true);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // UpdateRating of customer id applied as action number action
+    public void updateRating(long action, int id, int song, int value) {
+        try {
+            start(UPDATE_RATING, action);
+            body.writeInt(id);
+            body.writeInt(song);
+            body.writeInt(value);
+            end(true);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // RemoveCustomer of customer id applied as action number action
+    public void removeCustomer(long action, int id) {
+        try {
+            start(REMOVE_CUSTOMER, action);
+            body.writeInt(id);
+            end(true);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // records waiting for the next sync
+    public int pending() { return pending; }
+
+    // changes logged since the log was last emptied
+    public long sinceCheckpoint() { return sinceCheckpoint; }
+
+    // write the records of the group with the number of actions answered so far and force them to disk
+    public void sync(long actionsDone) throws IOException {
+        start(PROGRESS, actionsDone);
+        end(false);
+        flush();
+        channel.force(false);
+        pending = 0;
+    }
+
+    // empty the log once a checkpoint holds everything in it
+    public void truncate() throws IOException {
+        buffer.clear();
+        channel.truncate(0);
+        channel.position(0);
+        channel.force(true);
+        pending = 0;
+        sinceCheckpoint = 0;
+    }
+
+    private void start(byte kind, long action) throws IOException {
+        record.reset();
+        body.writeByte(kind);
+        body.writeLong(action);
+    }
+
+    // frame the record and add it to the buffer
+    private void end(boolean change) throws IOException {
+        int length = record.size();
+        byte[] bytes = record.toByteArray();
+        crc.reset();
+        crc.update(bytes, 0, length);
+        if (buffer.remaining() < length + 8) flush();
+        if (buffer.remaining() < length + 8) { // bigger than the buffer
+            channel.write(ByteBuffer.wrap(frame(bytes, length)));
+        } else {
+            buffer.putInt(length).put(bytes, 0, length).putInt((int) crc.getValue());
+        }
+        if (change) {
+            pending++;
+            sinceCheckpoint++;
+        }
+    }
+
+    private byte[] frame(byte[] bytes, int length) {
+        return ByteBuffer.allocate(length + 8).putInt(length).put(bytes, 0, length).putInt((int) crc.getValue()).array();
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Description of this file : reads the actions file one Action at a time through a LineReader.
+ * A blank line in the middle of the file is a wrong query; blank lines at its end are ignored.
+ */
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+// reads the actions file one Action at a time
+class ActionReader implements Closeable {
+
+    private final LineReader reader;
+    private int blankLines; // blank lines not reported yet; blank lines at the end of the file are ignored
+    private boolean held; // the current line is read but not reported yet
+
+    public ActionReader(File file) throws IOException {
+        reader = new LineReader(file);
+    }
+
+    // read the next action into action; false at the end of the file
+    public boolean next(Action action) throws IOException {
+        while (!held) {
+            if (!reader.nextLine()) return false;
+            if (reader.isBlank()) blankLines++;
+            else held = true;
+        }
+        if (blankLines > 0) { // a blank line in the middle of the file is a wrong query
+            blankLines--;
+            action.kind = Action.Kind.WRONG_QUERY;
+            action.fileName = reader.fileName;
+            action.lineNumber = reader.lineNumber - blankLines - 1;
+            return true;
+        }
+        held = false;
+        action.fileName = reader.fileName;
+        action.lineNumber = reader.lineNumber;
+        reader.nextToken();
+        if (reader.tokenIs("AddCustomer")) {
+            if (!reader.nextToken()) throw reader.error("AddCustomer needs a customer name");
+            action.kind = Action.Kind.ADD_CUSTOMER;
+            action.name = reader.token();
+            reader.readRatings(action.row);
+            action.line = reader.line();
+        } else if (reader.tokenIs("RecommendSongs")) {
+            action.kind = Action.Kind.RECOMMEND_SONGS;
+            action.name = reader.nextToken() ? reader.token() : null; // target of the ratings file if none
+        } else if (reader.tokenIs("PrintCustomerDistanceRatings")) {
+            action.kind = Action.Kind.PRINT_CUSTOMER_DISTANCE_RATINGS;
+        } else if (reader.tokenIs("UpdateRating")) { // UpdateRating <name> <song> <rating>, song as N or songN
+            if (!reader.nextToken()) throw reader.error("UpdateRating needs a customer name, a song and a rating");
+            action.kind = Action.Kind.UPDATE_RATING;
+            action.name = reader.token();
+            if (!reader.nextToken()) throw reader.error("UpdateRating needs a song after the customer name");
+            action.song = reader.number("song", "song number") - 1;
+            if (action.song < 0) throw reader.error("song number must be at least 1 but was " + (action.song + 1));
+            if (!reader.nextToken()) throw reader.error("UpdateRating needs a rating after the song");
+            action.value = reader.number("", "rating");
+            action.line = reader.line();
+        } else if (reader.tokenIs("RemoveCustomer")) {
+            if (!reader.nextToken()) throw reader.error("RemoveCustomer needs a customer name");
+            action.kind = Action.Kind.REMOVE_CUSTOMER;
+            action.name = reader.token();
+            action.line = reader.line();
+        } else if (reader.tokenIs("SaveSnapshot")) {
+            action.kind = Action.Kind.SAVE_SNAPSHOT;
+        } else {
+            action.kind = Action.Kind.WRONG_QUERY;
+        }
+        return true;
+    }
+
+    // read past the first n actions, which a snapshot already answered
+    public void skip(long n) throws IOException {
+        Action action = new Action();
+        for (long k = 0; k < n; k++) {
+            if (!next(action)) {
+                throw new IllegalArgumentException(reader.fileName + ": has " + k + " actions but the snapshot answered " + n);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
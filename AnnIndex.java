@@ -0,0 +1,156 @@
+/**
+ * Description of this file : approximate nearest customers by locality sensitive hashing of the rated songs.
+ * calculate only measures customers sharing rated songs, and gets smaller the more songs they share and the closer
+ * their ratings are. Every customer is therefore hashed as the set of its rated songs plus its (song, rating) pairs:
+ * MinHash of that set puts two customers in the same bucket with a probability that grows with both. Each of the
+ * L tables keys a customer by R MinHash values, so a lookup reads L buckets instead of every customer, and the
+ * shortlist is ranked again with the exact calculate. More tables find more of the true neighbours for more work.
+ * Customers whose ratings changed are hashed again on the next lookup; their old bucket entries stay behind and are
+ * skipped by comparing the bucket's key with the customer's new one, and every table is rebuilt once they make up
+ * half of the entries.
+ * Lookups change the index, so callers hold one lock around it, as NeighbourCache does.
+ */
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+// L tables of R-wide MinHash buckets over the customers of a store
+class AnnIndex {
+
+    private final CustomerStore store;
+    private final int tables; // L : buckets read per lookup
+    private final int rows; // R : MinHash values per bucket key
+    private final long[] seeds; // one hash function per table row
+    private HashMap<Long, IdList>[] buckets;
+    private final BitSet changed = new BitSet(); // customers to hash again before the next lookup
+    // current keys of the customers hashed again since the tables were built, NO_KEYS once they rate no song;
+    // an entry of theirs in a bucket of another key is stale
+    private final HashMap<Integer, long[]> rehashed = new HashMap<>();
+    private static final long[] NO_KEYS = new long[0];
+    private long entries; // ids in all buckets
+    private long stale; // entries left behind by customers hashed again
+
+    // per lookup dedup of the candidates
+    private int[] seen = new int[0];
+    private int stamp;
+
+    public AnnIndex(CustomerStore store, int tables, int rows) {
+        this.store = store;
+        this.tables = tables;
+        this.rows = rows;
+        seeds = new long[tables * rows];
+        long s = 0x9e3779b97f4a7c15L;
+        for (int i = 0; i < seeds.length; i++) seeds[i] = mix(s += 0x9e3779b97f4a7c15L);
+        clearBuckets();
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"}) // no generic array creation
+    private void clearBuckets() {
+        buckets = new HashMap[tables];
+        for (int t = 0; t < tables; t++) buckets[t] = new HashMap<>();
+        rehashed.clear();
+        entries = 0;
+        stale = 0;
+    }
+
+    // hash a new customer into every table
+    public void add(int id, RatingRow row) {
+        add(id, keys(row));
+    }
+
+    private void add(int id, long[] keys) {
+        if (keys == null) return; // no rated song, never measurable
+        for (int t = 0; t < tables; t++) {
+            buckets[t].computeIfAbsent(keys[t], key -> new IdList()).add(id);
+        }
+        entries += tables;
+    }
+
+    // the customer's ratings changed or it was removed; it is hashed again on the next lookup
+    public void changed(int id) {
+        changed.set(id);
+    }
+
+    // give the exact distance from target of every measurable customer sharing a bucket with it, in no
+    // particular order; the target, removed customers and stale entries are left out
+    public void forEachCandidate(int target, DistanceSink sink) {
+        flush();
+        int size = store.size();
+        if (seen.length < size) seen = new int[size];
+        if (++stamp == 0) { // wrapped around: forget every old stamp
+            Arrays.fill(seen, 0);
+            stamp = 1;
+        }
+        long[] keys = keys(store.readRow(target, new RatingRow()));
+        if (keys == null) return;
+        seen[target] = stamp;
+        for (int t = 0; t < tables; t++) {
+            IdList bucket = buckets[t].get(keys[t]);
+            if (bucket == null) continue;
+            for (int i = 0; i < bucket.size(); i++) {
+                int id = bucket.get(i);
+                if (seen[id] == stamp) continue;
+                long[] now = rehashed.get(id);
+                if (now != null && (now == NO_KEYS || now[t] != keys[t])) continue; // left behind by a rehash
+                seen[id] = stamp;
+                if (store.isRemoved(id)) continue;
+                double d = store.calculate(target, id);
+                if (d != -1) sink.accept(id, d);
+            }
+        }
+    }
+
+    // hash the changed customers again, or rebuild every table when old entries would outnumber the live ones
+    private void flush() {
+        if (changed.isEmpty()) return;
+        RatingRow row = new RatingRow();
+        stale += (long) changed.cardinality() * tables;
+        if (2 * stale > entries) {
+            clearBuckets();
+            for (int id = 0, size = store.size(); id < size; id++) {
+                if (!store.isRemoved(id)) add(id, store.readRow(id, row));
+            }
+        } else {
+            for (int id = changed.nextSetBit(0); id >= 0; id = changed.nextSetBit(id + 1)) {
+                if (store.isRemoved(id)) continue;
+                long[] keys = keys(store.readRow(id, row));
+                rehashed.put(id, keys == null ? NO_KEYS : keys);
+                add(id, keys);
+            }
+        }
+        changed.clear();
+    }
+
+    // one bucket key per table: R MinHash values of the customer's songs and (song, rating) pairs; null if the
+    // customer rated no song
+    private long[] keys(RatingRow row) {
+        long[] min = new long[seeds.length];
+        Arrays.fill(min, Long.MAX_VALUE);
+        boolean rated = false;
+        for (int i = 0; i < row.count; i++) {
+            if (row.values[i] == 0) continue; // only sets the width
+            rated = true;
+            long song = (long) row.songs[i] << 7;
+            long pair = song | row.values[i]; // ratings are 1 to 127, below 1 << 7
+            for (int h = 0; h < seeds.length; h++) {
+                min[h] = Math.min(min[h], Math.min(mix(song ^ seeds[h]), mix(pair ^ seeds[h])));
+            }
+        }
+        if (!rated) return null;
+        long[] keys = new long[tables];
+        for (int t = 0; t < tables; t++) {
+            long key = t;
+            for (int r = 0; r < rows; r++) key = mix(key * 31 + min[t * rows + r]);
+            keys[t] = key;
+        }
+        return keys;
+    }
+
+    // 64 bit finalizer of SplitMix64
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ * Description of this file : batched, multi-threaded execution of the actions file.
+ * A window of actions is read at once. Runs of AddCustomer get their distances calculated on the worker pool,
+ * runs of read-only requests between two changes are answered in parallel into private buffers, and every answer
+ * is written in the original order through one buffered stream, so the output is the same as the sequential loop.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.IntStream;
+
+// runs the actions file window by window on a pool
+class BatchProcessor {
+
+    private final Session session;
+    private final ForkJoinPool pool;
+    private final Action[] window;
+
+    public BatchProcessor(Session session, ForkJoinPool pool, int windowSize) {
+        this.session = session;
+        this.pool = pool;
+        this.window = new Action[windowSize];
+    }
+
+    // answer every request of the file; the output stream is flushed even if a request fails
+    public void run(File file) throws IOException {
+        try (ActionReader reader = new ActionReader(file)) {
+            reader.skip(session.actionsDone); // answered before the snapshot the session started from
+            int n;
+            do {
+                n = 0;
+                while (n < window.length) {
+                    if (window[n] == null) window[n] = new Action();
+                    if (!reader.next(window[n])) break;
+                    n++;
+                }
+                process(n);
+            } while (n == window.length);
+        } finally {
+            session.out.flush();
+        }
+    }
+
+    // split the window into runs that can be worked on together
+    private void process(int n) {
+        int i = 0;
+        while (i < n) {
+            int j = i + 1;
+            if (window[i].kind == Action.Kind.ADD_CUSTOMER) {
+                while (j < n && window[j].kind == Action.Kind.ADD_CUSTOMER) j++;
+                addCustomers(i, j);
+            } else if (readOnly(window[i])) {
+                while (j < n && readOnly(window[j])) j++;
+                answer(i, j);
+            } else { // a request that changes the heap runs on its own
+                RecommendationSystem.runAction(window[i], session);
+            }
+            RecommendationSystem.answered(session, j - i);
+            i = j;
+        }
+    }
+
+    // true for requests that do not change the customers or the heap
+    private boolean readOnly(Action action) {
+        switch (action.kind) {
+            case RECOMMEND_SONGS:
+                return action.name != null || session.options.keepHeap || session.topK != null;
+            case PRINT_CUSTOMER_DISTANCE_RATINGS:
+                return session.tableFile == null; // tables going to one file are written in order
+            case WRONG_QUERY:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // answer the read-only requests window[from..to) in parallel, then write the answers in order
+    private void answer(int from, int to) {
+        if (to - from == 1) {
+            RecommendationSystem.runAction(window[from], session);
+            return;
+        }
+        session.customerList.flush(); // merge pending customers first so printing only reads the list
+        ArrayList<ForkJoinTask<ByteArrayOutputStream>> answers = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            Action action = window[i];
+            answers.add(pool.submit(() -> {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                PrintStream out = new PrintStream(buffer);
+                RecommendationSystem.runAction(action, session, out);
+                out.flush();
+                return buffer;
+            }));
+        }
+        for (ForkJoinTask<ByteArrayOutputStream> answer : answers) {
+            byte[] bytes = answer.join().toByteArray();
+            session.out.write(bytes, 0, bytes.length);
+        }
+    }
+
+    // add the customers of window[from..to): rows are stored in order, distances are calculated in parallel,
+    // then the customer list, heap and neighbour cache are updated in the original order
+    private void addCustomers(int from, int to) {
+        long start = Metrics.now();
+        CustomerStore store = session.store;
+        int[] ids = new int[to - from];
+        int added = 0;
+        IllegalArgumentException failure = null;
+        for (int i = from; i < to; i++, added++) {
+            try {
+                ids[added] = store.add(window[i].name, window[i].row);
+            } catch (IllegalArgumentException e) {
+                failure = window[i].error(e.getMessage());
+                break;
+            }
+        }
+        int count = added;
+        int target = session.targetCus;
+        int first = ids[0]; // new customers get consecutive ids
+        int block = RecommendationSystem.SCORE_BLOCK / 4;
+        long score = Metrics.now();
+        pool.submit(() -> IntStream.range(0, (count + block - 1) / block).parallel()
+                .forEach(b -> RecommendationSystem.scoreRange(store, target, first + b * block, first + Math.min(count, (b + 1) * block)))).join();
+        long calculate = count == 0 ? 0 : (Metrics.now() - score) / count; // a run is timed as a whole, shared evenly
+        for (int k = 0; k < count; k++) {
+            int id = ids[k];
+            session.out.println(window[from + k].line); // output the request itself
+            session.customerList.add(id);
+            if (store.distance(id) != -1) session.heap.insert(id);
+            session.neighbours.customerAdded(id);
+            if (session.log != null) session.log.addCustomer(session.actionsDone + k + 1, window[from + k].name, window[from + k].row);
+            Metrics.CALCULATE.record(calculate); // the samples addCus records, one per customer
+            (store.distance(id) == -1 ? Metrics.UNMEASURABLE : Metrics.MEASURABLE).increment();
+        }
+        if (count > 0) {
+            long each = (Metrics.now() - start) / count;
+            for (int k = 0; k < count; k++) Metrics.ADD_CUSTOMER.record(each);
+        }
+        if (failure != null) {
+            session.out.println(window[from + count].line);
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,532 @@
+/**
+ * Description of this file : benchmarks of loading, calculate, heap construction, addCus, recommend and print on
+ * synthetic ratings, for MinHeap (RecommendationSystem, one insert at a time) and MinHeap2
+ * (RecommendationSystemEnhanced, bottom up buildHeap).
+ * Every case is warmed up first, then timed sample by sample. The report gives the throughput, the latency
+ * percentiles per operation and the bytes the benchmarking thread allocated per operation.
+ *
+ * The ann case also reports the recall of AnnIndex against the exact nearest customers, per number of tables.
+ * The service case reports the RecommendSongs throughput of RecommendationService per number of reader threads
+ * while one thread keeps adding customers. --metrics runs every case with the metrics recorded, to see what they cost.
+ *
+ * usage : java Benchmark [--customers=N] [--songs=M] [--rated=R] [--sparse] [--index] [--samples=S]
+ *                        [--warmup=W] [--seed=X] [--only=case,case] [--ann=L,L] [--ann-rows=R]
+ *                        [--k=K] [--readers=T,T] [--metrics] [--write=ratings.txt]
+ */
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+// random customers with R rated songs out of M, ratings 1 to 5; the same seed gives the same customers
+class SyntheticRatings {
+
+    final int customers, songs, rated;
+    private final Random random;
+    private int next; // number of customers generated so far, used for their names
+
+    SyntheticRatings(int customers, int songs, int rated, long seed) {
+        this.customers = customers;
+        this.songs = songs;
+        this.rated = Math.min(rated, songs);
+        this.random = new Random(seed);
+    }
+
+    // ratings of the next customer; the width always covers the whole catalog
+    RatingRow nextRow(RatingRow row) {
+        row.clear();
+        if (rated == songs) {
+            for (int s = 0; s < songs; s++) row.add(s, 1 + random.nextInt(5));
+        } else {
+            for (int i = 0; i < rated; i++) row.add(random.nextInt(songs), 1 + random.nextInt(5));
+            row.sort();
+            dropRepeatedSongs(row);
+        }
+        row.add(songs - 1, 0); // a zero only sets the width
+        return row;
+    }
+
+    // keep the first rating of a song drawn twice
+    private static void dropRepeatedSongs(RatingRow row) {
+        int n = 0;
+        for (int i = 0; i < row.count; i++) {
+            if (n > 0 && row.songs[n - 1] == row.songs[i]) continue;
+            row.songs[n] = row.songs[i];
+            row.values[n++] = row.values[i];
+        }
+        row.count = n;
+    }
+
+    // name of the next customer; names sort in the order they are generated
+    String nextName() {
+        return String.format("c%08d", next++);
+    }
+
+    // add the target and every customer to the store; the target is returned, the others go into loaded
+    int fill(CustomerStore store, IdList loaded) {
+        RatingRow row = new RatingRow();
+        int target = store.add("target", nextRow(row));
+        for (int i = 0; i < customers; i++) {
+            loaded.add(store.add(nextName(), nextRow(row)));
+        }
+        return target;
+    }
+
+    // write a ratings file with the same customers as fill: positional ratings, or "N:r" pairs when sparse
+    void write(File file, boolean pairs) throws IOException {
+        RatingRow row = new RatingRow();
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(file), 1 << 16)) {
+            out.write("target\n");
+            writeRow(out, "target", nextRow(row), pairs);
+            for (int i = 0; i < customers; i++) {
+                writeRow(out, nextName(), nextRow(row), pairs);
+            }
+        }
+    }
+
+    private void writeRow(BufferedWriter out, String name, RatingRow row, boolean pairs) throws IOException {
+        out.write(name);
+        if (pairs) {
+            for (int i = 0; i < row.count; i++) {
+                out.write(" " + (row.songs[i] + 1) + ":" + row.values[i]);
+            }
+            if (row.count == 0 || row.songs[row.count - 1] != songs - 1) out.write(" " + songs + ":0");
+        } else {
+            int[] ratings = new int[songs];
+            for (int i = 0; i < row.count; i++) ratings[row.songs[i]] = row.values[i];
+            for (int r : ratings) out.write(" " + r);
+        }
+        out.write('\n');
+    }
+}
+
+public class Benchmark {
+
+    // one timed case: prepare runs before the clock starts, run does ops operations
+    interface Case {
+        default void prepare() {}
+        void run();
+    }
+
+    private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+    private int samples = 200; // timed samples of a light case
+    private int warmup = 50; // untimed samples of a light case
+    private HashSet<String> only; // cases to run, null for all
+    private int[] annTables = {4, 8, 16, 32}; // tables of the AnnIndex variants compared in the ann case
+    private int annRows = 2; // MinHash values per bucket key in the ann case
+    private int k = 10; // nearest customers asked for in the ann case
+    private int[] readers = {1, 2, 4, 8}; // reader threads of the service case
+    private static double sink; // results are added here so the JIT cannot drop the work
+
+    public static void main(String[] args) throws IOException {
+        int customers = 100_000, songs = 10, rated = 7;
+        long seed = 42;
+        boolean sparse = false, index = false;
+        String write = null;
+        Benchmark bench = new Benchmark();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            String name = eq < 0 ? arg : arg.substring(0, eq);
+            String value = eq < 0 ? null : arg.substring(eq + 1);
+            switch (name) {
+                case "--customers": customers = number(name, value); break;
+                case "--songs": songs = number(name, value); break;
+                case "--rated": rated = number(name, value); break;
+                case "--samples": bench.samples = number(name, value); break;
+                case "--warmup": bench.warmup = number(name, value); break;
+                case "--seed": seed = number(name, value); break;
+                case "--sparse": sparse = true; break;
+                case "--index": index = true; break;
+                case "--only": bench.only = new HashSet<>(Arrays.asList(String.valueOf(value).split(","))); break;
+                case "--ann": bench.annTables = Arrays.stream(String.valueOf(value).split(",")).mapToInt(v -> number(name, v)).toArray(); break;
+                case "--ann-rows": bench.annRows = number(name, value); break;
+                case "--k": bench.k = number(name, value); break;
+                case "--readers": bench.readers = Arrays.stream(String.valueOf(value).split(",")).mapToInt(v -> number(name, v)).toArray(); break;
+                case "--metrics": Metrics.start(0); break;
+                case "--write": write = value; break;
+                default: throw new IllegalArgumentException("unknown option " + arg);
+            }
+        }
+        if (write != null) { // only write a ratings file for the programs themselves
+            new SyntheticRatings(customers, songs, rated, seed).write(new File(write), sparse);
+            return;
+        }
+        System.out.printf("%d customers, %d songs, %d rated each, %s%s store%n", customers, songs, Math.min(rated, songs),
+                sparse ? "sparse" : "dense", index ? " indexed" : "");
+        bench.run(customers, songs, rated, seed, sparse, index);
+    }
+
+    // positive number given to an option
+    private static int number(String name, String value) {
+        try {
+            int n = Integer.parseInt(String.valueOf(value));
+            if (n > 0) return n;
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException(name + " needs a positive number, e.g. " + name + "=1000");
+    }
+
+    // every case, in this order: the addCus cases come last because they grow the store
+    private void run(int customers, int songs, int rated, long seed, boolean sparse, boolean index) throws IOException {
+        System.out.printf("%-24s %14s %11s %11s %11s %11s %12s%n", "case", "ops/s", "p50 us", "p90 us", "p99 us", "max us", "alloc B/op");
+        int heavy = Math.max(3, samples / 20); // samples of the cases that work on every customer
+        int heavyWarmup = Math.max(1, warmup / 20);
+
+        if (wanted("load")) {
+            File file = File.createTempFile("ratings", ".txt");
+            file.deleteOnExit();
+            new SyntheticRatings(customers, songs, rated, seed).write(file, sparse);
+            measure("load", customers, heavy, heavyWarmup, () -> {
+                CustomerStore s = CustomerStore.create(sparse);
+                if (index) s.enableSongIndex();
+                try {
+                    RecommendationSystem.loadRatings(file, s, new IdList());
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            file.delete();
+        }
+
+        CustomerStore store = CustomerStore.create(sparse);
+        if (index) store.enableSongIndex();
+        IdList loaded = new IdList();
+        SyntheticRatings generator = new SyntheticRatings(customers, songs, rated, seed);
+        int target = generator.fill(store, loaded);
+        loaded.sort(store::compare);
+        RecommendationSystem.scoreCustomers(store, target, null);
+        int[] measurable = RecommendationSystem.measurable(store, loaded, null);
+        System.out.printf("%d of %d customers share a rated song with the target%n", measurable.length, customers);
+
+        if (wanted("calculate")) {
+            int[] others = new Random(seed).ints(4096, 0, loaded.size()).map(loaded::get).toArray();
+            measure("calculate", others.length, samples, warmup, () -> {
+                double sum = 0;
+                for (int id : others) sum += RecommendationSystem.calculate(store, target, id);
+                sink += sum;
+            });
+            if (store instanceof DenseCustomerStore) { // the one song at a time loop the SWAR kernel replaced
+                DenseCustomerStore dense = (DenseCustomerStore) store;
+                measure("calculate/scalar", others.length, samples, warmup, () -> {
+                    double sum = 0;
+                    for (int id : others) sum += dense.calculateScalar(target, id);
+                    sink += sum;
+                });
+            }
+            double[] block = new double[Math.min(RecommendationSystem.SCORE_BLOCK, store.size() - 1)];
+            measure("calculate-range", block.length, samples, warmup, () -> {
+                store.calculateRange(target, 1, 1 + block.length, block);
+                sink += block[block.length - 1];
+            });
+        }
+        if (wanted("score")) {
+            measure("score", customers, heavy, heavyWarmup, () -> RecommendationSystem.scoreCustomers(store, target, null));
+        }
+
+        MinHeap heap = new MinHeap(store);
+        for (int id : measurable) heap.insert(id);
+        MinHeap2 heap2 = new MinHeap2(store);
+        heap2.addElements(measurable);
+        heap2.buildHeap();
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+        if (wanted("heap-insert")) {
+            measure("heap-insert/MinHeap", measurable.length, heavy, heavyWarmup, () -> {
+                MinHeap h = new MinHeap(store);
+                for (int id : measurable) h.insert(id);
+            });
+        }
+        if (wanted("heap-build")) {
+            measure("heap-build/MinHeap2", measurable.length, heavy, heavyWarmup, () -> {
+                MinHeap2 h = new MinHeap2(store);
+                h.addElements(measurable);
+                h.buildHeap();
+            });
+            measure("heap-build/MinHeap2-pool", measurable.length, heavy, heavyWarmup, () -> {
+                MinHeap2 h = new MinHeap2(store);
+                h.addElements(measurable);
+                h.buildHeap(pool); // work done by the pool threads is not in the allocation column
+            });
+        }
+        if (wanted("recommend")) {
+            recommend("recommend/MinHeap", store, target, heap);
+            recommend("recommend/MinHeap2", store, target, heap2);
+            int ops = 16;
+            measure("recommend-keep/MinHeap", ops, samples, warmup, () -> {
+                for (int i = 0; i < ops; i++) { // the walk of --keep-heap without its answer cache
+                    sink += RecommendationSystem.answer(store, target, heap.findFirst(id -> store.hasLikedUnrated(target, id))).length();
+                }
+            });
+            measure("recommend-keep/MinHeap2", ops, samples, warmup, () -> {
+                for (int i = 0; i < ops; i++) {
+                    sink += RecommendationSystem.answer(store, target, heap2.findFirst(id -> store.hasLikedUnrated(target, id))).length();
+                }
+            });
+        }
+
+        if (wanted("ann")) {
+            ann(store, target, heap, loaded, seed);
+        }
+
+        NameOrderedList list = new NameOrderedList(store, loaded);
+        if (wanted("print")) {
+            if ((long) customers * songs > 2_000_000_000L) {
+                System.out.printf("%-24s skipped, %d rows of %d songs%n", "print", customers, songs);
+            } else {
+                PrintStream nowhere = new PrintStream(OutputStream.nullOutputStream());
+                measure("print", customers, heavy, heavyWarmup, () -> RecommendationSystem.print(store, list, nowhere));
+            }
+        }
+        if (wanted("addCus")) {
+            addCus("addCus/MinHeap", store, list, target, heap, generator);
+            addCus("addCus/MinHeap2", store, list, target, heap2, generator);
+        }
+        if (wanted("service")) {
+            service(customers, songs, rated, seed, sparse, index);
+        }
+        pool.shutdown();
+    }
+
+    private boolean wanted(String name) {
+        return only == null || only.contains(name);
+    }
+
+    // RecommendSongs that removes customers; every sample starts from a copy of the heap, made before the clock starts
+    private void recommend(String name, CustomerStore store, int target, MinHeap heap) {
+        MinHeap copy = new MinHeap(store);
+        measure(name, 1, samples, warmup, new Case() {
+            @Override
+            public void prepare() {
+                copy.size = 0;
+                for (int i = 0; i < heap.size; i++) copy.append(heap.list[i]);
+            }
+
+            @Override
+            public void run() {
+                sink += RecommendationSystem.recommendSongs(copy, store, target, false).length();
+            }
+        });
+    }
+
+    // k nearest customers of sampled customers: the exact scan against AnnIndex with every number of tables.
+    // the target's exact neighbours come from the heap walk, everybody else's from a scan with calculate.
+    // the indexes are built aside from the store, so the addCus cases after this one do not feed them
+    private void ann(CustomerStore store, int target, MinHeap heap, IdList loaded, long seed) {
+        int queries = 64;
+        int[] ids = new int[queries];
+        ids[0] = target;
+        Random random = new Random(seed + 1);
+        for (int i = 1; i < queries; i++) ids[i] = loaded.get(random.nextInt(loaded.size()));
+        int[][] exact = new int[queries][];
+        int[] count = new int[1];
+        int[] first = new int[k];
+        heap.findFirst(id -> { // the target's k nearest, best first
+            first[count[0]] = id;
+            return ++count[0] == k;
+        });
+        exact[0] = Arrays.copyOf(first, count[0]);
+        for (int i = 1; i < queries; i++) exact[i] = nearest(store, ids[i], null);
+        int heavy = Math.max(3, samples / 20);
+        measure("ann-exact-scan", queries, heavy, Math.max(1, warmup / 20), () -> {
+            for (int id : ids) sink += nearest(store, id, null).length;
+        });
+        for (int tables : annTables) {
+            AnnIndex[] built = new AnnIndex[1];
+            measure("ann-build/L=" + tables, store.size(), 1, 0, () -> {
+                built[0] = new AnnIndex(store, tables, annRows);
+                RatingRow row = new RatingRow();
+                for (int id = 0; id < store.size(); id++) built[0].add(id, store.readRow(id, row));
+            });
+            AnnIndex index = built[0];
+            measure("ann-query/L=" + tables, queries, samples, warmup, () -> {
+                for (int id : ids) sink += nearest(store, id, index).length;
+            });
+            long found = 0, wanted = 0;
+            for (int i = 0; i < queries; i++) {
+                HashSet<Integer> approximate = new HashSet<>();
+                for (int id : nearest(store, ids[i], index)) approximate.add(id);
+                for (int id : exact[i]) if (approximate.contains(id)) found++;
+                wanted += exact[i].length;
+            }
+            System.out.printf("%-24s recall@%d %.3f%n", "ann-query/L=" + tables, k, wanted == 0 ? 1.0 : (double) found / wanted);
+        }
+    }
+
+    // k nearest customers of target, closest first with names, then ids breaking ties, from every customer or from the
+    // shortlist of index
+    private int[] nearest(CustomerStore store, int target, AnnIndex index) {
+        int[] ids = new int[k];
+        double[] distances = new double[k];
+        int[] size = new int[1];
+        DistanceSink offer = (id, d) -> {
+            int i = size[0];
+            if (i == k) {
+                if (d > distances[k - 1] || (d == distances[k - 1] && store.compareNameThenId(id, ids[k - 1]) >= 0)) return;
+                i--;
+            } else {
+                size[0]++;
+            }
+            while (i > 0 && (d < distances[i - 1] || (d == distances[i - 1] && store.compareNameThenId(id, ids[i - 1]) < 0))) {
+                ids[i] = ids[i - 1];
+                distances[i] = distances[i - 1];
+                i--;
+            }
+            ids[i] = id;
+            distances[i] = d;
+        };
+        if (index != null) {
+            index.forEachCandidate(target, offer);
+        } else {
+            for (int id = 0, n = store.size(); id < n; id++) {
+                if (id == target) continue;
+                double d = store.calculate(target, id);
+                if (d != -1) offer.accept(id, d);
+            }
+        }
+        return Arrays.copyOf(ids, size[0]);
+    }
+
+    // AddCustomer of new generated customers, 1024 per sample
+    private void addCus(String name, CustomerStore store, NameOrderedList list, int target, MinHeap heap,
+                        SyntheticRatings generator) {
+        int ops = 1024;
+        String[] names = new String[ops];
+        RatingRow[] rows = new RatingRow[ops];
+        for (int i = 0; i < ops; i++) rows[i] = new RatingRow();
+        measure(name, ops, samples, warmup, new Case() {
+            @Override
+            public void prepare() {
+                for (int i = 0; i < ops; i++) {
+                    names[i] = generator.nextName();
+                    generator.nextRow(rows[i]);
+                }
+            }
+
+            @Override
+            public void run() {
+                for (int i = 0; i < ops; i++) RecommendationSystem.addCus(names[i], rows[i], store, list, target, heap);
+            }
+        });
+    }
+
+    // RecommendSongs for the target on 1, 2, 4 ... reader threads of one RecommendationService, for a second per
+    // thread count, while a writer thread adds customers in batches of 64. the service gets copies of its own
+    private void service(int customers, int songs, int rated, long seed, boolean sparse, boolean index) {
+        SyntheticRatings added = new SyntheticRatings(0, songs, rated, seed + 2);
+        long base = 0;
+        try (RecommendationService service = new RecommendationService(session(customers, songs, rated, seed, sparse, index),
+                session(customers, songs, rated, seed, sparse, index), RecommendationService.DEFAULT_BATCH)) {
+            for (int threads : readers) {
+                AtomicBoolean stop = new AtomicBoolean();
+                LongAdder reads = new LongAdder();
+                long[] writes = new long[1];
+                Thread writer = new Thread(() -> {
+                    RatingRow row = new RatingRow();
+                    while (!stop.get()) {
+                        CompletableFuture<Boolean> last = null;
+                        for (int i = 0; i < 64; i++) last = service.addCustomer(added.nextName(), added.nextRow(row));
+                        last.join();
+                        writes[0] += 64;
+                    }
+                });
+                Thread[] workers = new Thread[threads];
+                for (int t = 0; t < threads; t++) {
+                    workers[t] = new Thread(() -> {
+                        long n = 0, length = 0;
+                        while (!stop.get()) {
+                            length += service.recommendSongs().length();
+                            n++;
+                        }
+                        reads.add(n);
+                        sink += length;
+                    });
+                }
+                writer.start();
+                for (Thread worker : workers) worker.start();
+                long start = System.nanoTime();
+                try {
+                    Thread.sleep(1000);
+                    stop.set(true);
+                    for (Thread worker : workers) worker.join();
+                    writer.join();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                double seconds = (System.nanoTime() - start) / 1e9;
+                long perSecond = (long) (reads.sum() / seconds);
+                if (base == 0) base = perSecond / threads;
+                System.out.printf("%-24s %14d reads/s %10d adds/s %6.2fx of one reader%n", "service/readers=" + threads,
+                        perSecond, (long) (writes[0] / seconds), base == 0 ? 0 : (double) perSecond / base);
+            }
+        }
+    }
+
+    // a session over generated customers, the same ones for the same seed
+    private static Session session(int customers, int songs, int rated, long seed, boolean sparse, boolean index) {
+        CustomerStore store = CustomerStore.create(sparse);
+        if (index) store.enableSongIndex();
+        IdList loaded = new IdList();
+        int target = new SyntheticRatings(customers, songs, rated, seed).fill(store, loaded);
+        loaded.sort(store::compare);
+        RecommendationSystem.scoreCustomers(store, target, null);
+        MinHeap heap = new MinHeap(store);
+        for (int id : RecommendationSystem.measurable(store, loaded, null)) heap.insert(id);
+        return new Session(new Options(), store, new NameOrderedList(store, loaded), target, heap);
+    }
+
+    // warm up, time every sample, and print one line of the report
+    private void measure(String name, int ops, int samples, int warmup, Case c) {
+        for (int i = 0; i < warmup; i++) {
+            c.prepare();
+            c.run();
+        }
+        long[] nanos = new long[samples];
+        long total = 0, allocated = 0;
+        for (int i = 0; i < samples; i++) {
+            c.prepare();
+            long bytes = allocatedBytes();
+            long start = System.nanoTime();
+            c.run();
+            nanos[i] = System.nanoTime() - start;
+            allocated += allocatedBytes() - bytes;
+            total += nanos[i];
+        }
+        Arrays.sort(nanos);
+        double opsPerSecond = (double) ops * samples / (total / 1e9);
+        System.out.printf("%-24s %14.0f %11.3f %11.3f %11.3f %11.3f %12s%n", name, opsPerSecond,
+                micros(nanos, 0.50, ops), micros(nanos, 0.90, ops), micros(nanos, 0.99, ops), micros(nanos, 1, ops),
+                THREADS == null ? "n/a" : String.valueOf(allocated / ((long) ops * samples)));
+    }
+
+    // microseconds per operation at the given percentile of the sorted sample times
+    private static double micros(long[] sorted, double percentile, int ops) {
+        int i = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, i)] / 1e3 / ops;
+    }
+
+    // bytes allocated so far by this thread, 0 when the JVM cannot tell
+    private static long allocatedBytes() {
+        return THREADS == null ? 0 : THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static com.sun.management.ThreadMXBean threads() {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) return null;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()) return null;
+        threads.setThreadAllocatedMemoryEnabled(true);
+        return threads;
+    }
+}
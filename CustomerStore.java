@@ -0,0 +1,315 @@
+/**
+ * Description of this file : columnar customer table shared by RecommendationSystem and RecommendationSystemEnhanced.
+ * Every customer is an int id. Names are interned into an id table and distances live in a parallel double array.
+ * Ratings are kept either densely (one byte array with row stride = song count) for small catalogs,
+ * or sparsely (sorted song/rating runs) for catalogs where every customer rates only a few songs.
+ */
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+// customer table storing every customer's ratings, name and distance by id
+abstract class CustomerStore {
+
+    static final int INITIAL_CAPACITY = 16;
+    static final int LIKED = 4; // songs rated at least this much can be recommended
+    static final int MAX_RATING = Byte.MAX_VALUE; // largest rating the byte columns of both layouts hold exactly
+
+    private String[] names = new String[INITIAL_CAPACITY]; // id -> interned name
+    private double[] distances = new double[INITIAL_CAPACITY]; // id -> distance from the target customer
+    private final HashMap<String, Integer> ids = new HashMap<>(); // name -> latest id with that name
+    private int[] previous = new int[INITIAL_CAPACITY]; // id -> older id with the same name, -1 if none
+    private final BitSet removed = new BitSet(); // ids taken out by RemoveCustomer
+    private SongIndex songIndex; // song -> customers who rated it, null unless enabled
+    private AnnIndex annIndex; // buckets of customers with similar ratings, null unless enabled
+    protected int size;
+    private volatile UnratedMask unrated; // bitset of the songs the last target did not rate
+
+    // bitset built for one target and catalog size, replaced as a whole so concurrent readers can share it
+    private static class UnratedMask {
+        final int target, songs;
+        final long[] bits;
+        UnratedMask(int target, int songs, long[] bits) {
+            this.target = target;
+            this.songs = songs;
+            this.bits = bits;
+        }
+    }
+
+    // dense store for small catalogs, sparse store for large catalogs
+    public static CustomerStore create(boolean sparse) {
+        return sparse ? new SparseCustomerStore() : new DenseCustomerStore();
+    }
+
+    // add a customer with distance 0 and return its id; the row is checked before anything is written, so a
+    // rejected row leaves the store as it was
+    public int add(String name, RatingRow row) {
+        checkRow(row);
+        ensureCapacity(size + 1);
+        int id = size;
+        storeRow(id, row);
+        size++;
+        Integer old = ids.putIfAbsent(name, id);
+        if (old != null) { // share one String per name and let the name point to the newest customer
+            name = names[old];
+            ids.put(name, id);
+        }
+        names[id] = name;
+        previous[id] = old == null ? -1 : old;
+        if (songIndex != null) songIndex.add(id, row);
+        if (annIndex != null) annIndex.add(id, row);
+        return id;
+    }
+
+    // change one rating of a customer, 0 to drop it, and return the old rating; distances are not updated here
+    public int setRating(int id, int song, int value) {
+        checkRating(value);
+        int old = song < songCount() ? rating(id, song) : 0;
+        if (old == value) return old;
+        storeRating(id, song, value);
+        if (songIndex != null) songIndex.update(id, song, value);
+        if (annIndex != null) annIndex.changed(id);
+        ratingsChanged(id);
+        return old;
+    }
+
+    // true if setRating takes this change without widening the catalog: UpdateRating answers a wrong query otherwise
+    public boolean canSetRating(int song, int value) {
+        return song >= 0 && song < songCount() && value >= 0 && value <= MAX_RATING;
+    }
+
+    // reject a row the store cannot hold: a song below song1 or a rating the byte columns cannot hold
+    protected void checkRow(RatingRow row) {
+        for (int i = 0; i < row.count; i++) {
+            if (row.songs[i] < 0) throw new IllegalArgumentException("song number must be at least 1 but was " + (row.songs[i] + 1));
+            checkRating(row.values[i]);
+        }
+    }
+
+    // a rating is checked before anything is written, so a rejected rating leaves the store as it was
+    static void checkRating(int value) {
+        if (value < 0 || value > MAX_RATING) {
+            throw new IllegalArgumentException("rating must be between 0 and " + MAX_RATING + " but was " + value);
+        }
+    }
+
+    // take a customer out: its ratings are dropped and idOf finds the older customer with its name, if any.
+    // the id stays allocated so the other ids do not move
+    public void remove(int id) {
+        RatingRow row = readRow(id, new RatingRow());
+        for (int i = 0; i < row.count; i++) {
+            setRating(id, row.songs[i], 0);
+        }
+        removed.set(id);
+        distances[id] = -1;
+        String name = names[id];
+        Integer latest = ids.get(name);
+        if (latest != null && latest == id) {
+            int older = previous[id];
+            while (older != -1 && removed.get(older)) older = previous[older];
+            if (older == -1) ids.remove(name);
+            else ids.put(name, older);
+        }
+    }
+
+    // true if the customer was taken out by remove
+    public boolean isRemoved(int id) { return removed.get(id); }
+
+    // start keeping an inverted song -> customers index, covering the customers already stored
+    public SongIndex enableSongIndex() {
+        if (songIndex == null) {
+            songIndex = new SongIndex(this);
+            RatingRow row = new RatingRow();
+            for (int id = 0; id < size; id++) {
+                songIndex.add(id, readRow(id, row));
+            }
+        }
+        return songIndex;
+    }
+
+    // inverted index or null if it is not enabled
+    public SongIndex songIndex() { return songIndex; }
+
+    // start keeping an approximate nearest customer index of tables x rows MinHash buckets, covering the
+    // customers already stored
+    public AnnIndex enableAnnIndex(int tables, int rows) {
+        if (annIndex == null) {
+            annIndex = new AnnIndex(this, tables, rows);
+            RatingRow row = new RatingRow();
+            for (int id = 0; id < size; id++) {
+                if (!isRemoved(id)) annIndex.add(id, readRow(id, row));
+            }
+        }
+        return annIndex;
+    }
+
+    // approximate nearest customer index or null if it is not enabled
+    public AnnIndex annIndex() { return annIndex; }
+
+    // write every column to a snapshot
+    void writeTo(SnapshotWriter out) {
+        out.putInt(this instanceof SparseCustomerStore ? 1 : 0);
+        out.putInt(size);
+        for (int id = 0; id < size; id++) {
+            out.putString(names[id]);
+        }
+        out.putDoubles(distances, 0, size);
+        out.putInt(removed.cardinality());
+        for (int id = removed.nextSetBit(0); id >= 0; id = removed.nextSetBit(id + 1)) {
+            out.putInt(id);
+        }
+        writeRatings(out);
+    }
+
+    // store holding the columns written by writeTo; version 1 snapshots have no removed customers
+    static CustomerStore readFrom(SnapshotReader in, int version) {
+        int layout = in.getInt();
+        if (layout != 0 && layout != 1) throw in.error("unknown ratings layout " + layout);
+        CustomerStore store = create(layout == 1);
+        int size = in.getCount(4 + 8); // at least a name length and a distance per customer
+        if (size < 1) throw in.error("snapshot has no customers");
+        store.ensureCapacity(size);
+        for (int id = 0; id < size; id++) {
+            String name = in.getString();
+            Integer old = store.ids.put(name, id);
+            store.names[id] = old == null ? name : store.names[old]; // one String per name as in add
+            store.previous[id] = old == null ? -1 : old;
+        }
+        in.getDoubles(store.distances, 0, size);
+        for (int n = version < 2 ? 0 : in.getCount(4); n > 0; n--) {
+            int id = in.getInt();
+            if (id < 0 || id >= size) throw in.error("removed customer " + id + " is not a customer");
+            store.removed.set(id);
+        }
+        for (int id = size - 1; id >= 0; id--) { // names of removed customers point to an older live one
+            String name = store.names[id];
+            Integer latest = store.ids.get(name);
+            if (store.removed.get(id) && latest != null && latest == id) {
+                int older = store.previous[id];
+                while (older != -1 && store.removed.get(older)) older = store.previous[older];
+                if (older == -1) store.ids.remove(name);
+                else store.ids.put(name, older);
+            }
+        }
+        store.readRatings(in, size, store.names.length);
+        store.size = size;
+        return store;
+    }
+
+    // grow all columns together so they always have the same capacity; the ratings first, so a store too large
+    // for them keeps the columns it had
+    private void ensureCapacity(int capacity) {
+        if (capacity <= names.length) return;
+        int newCapacity = (int) Math.max(capacity, Math.min(names.length * 2L, maxCapacity()));
+        growRatings(newCapacity);
+        names = Arrays.copyOf(names, newCapacity);
+        distances = Arrays.copyOf(distances, newCapacity);
+        previous = Arrays.copyOf(previous, newCapacity);
+    }
+
+    // customers the columns have room for
+    protected int capacity() { return names.length; }
+    // most customers the ratings columns can hold, so growing stops there instead of doubling past it
+    protected int maxCapacity() { return Integer.MAX_VALUE - 8; }
+    // write the ratings of a new customer, already checked by checkRow
+    protected abstract void storeRow(int id, RatingRow row);
+    // make room for the ratings of capacity customers
+    protected abstract void growRatings(int capacity);
+    // write one rating of a stored customer, 0 to drop it
+    protected abstract void storeRating(int id, int song, int value);
+    // snapshot of the ratings of the first size customers
+    protected abstract void writeRatings(SnapshotWriter out);
+    // ratings written by writeRatings, into columns with room for capacity customers
+    protected abstract void readRatings(SnapshotReader in, int size, int capacity);
+
+    // number of songs in the catalog
+    public abstract int songCount();
+    // rating of a song (0 based), 0 if the customer did not rate it
+    public abstract int rating(int id, int song);
+    // distance between two customers; -1 if they have no song rated by both
+    public abstract double calculate(int target, int other);
+    // distances from target of the customers from..to-1 into out[0..to-from), the same values as calculate
+    public void calculateRange(int target, int from, int to, double[] out) {
+        for (int id = from; id < to; id++) {
+            out[id - from] = calculate(target, id);
+        }
+    }
+    // use the plain one song at a time loop in calculate instead of any faster kernel of the layout
+    public void useScalarKernel() {}
+    // true if other rated >= LIKED a song that target did not rate
+    public abstract boolean hasLikedUnrated(int target, int other);
+    // give every song other rated >= LIKED that target did not rate, with other's rating, in song order
+    public abstract void forEachLikedUnrated(int target, int other, RatingSink sink);
+
+    // append "songN rating " for every song other rated >= LIKED that target did not rate, in song order
+    public void appendLikedUnrated(int target, int other, StringBuilder sb) {
+        forEachLikedUnrated(target, other, (song, rating) -> sb.append("song").append(song + 1).append(' ').append(rating).append(' '));
+    }
+    // fill row (length >= songCount) with all ratings of a customer
+    public abstract void copyRow(int id, int[] row);
+    // fill row with the (song, rating) pairs of a customer in song order and return it
+    public abstract RatingRow readRow(int id, RatingRow row);
+
+    // getter method
+    public int size() { return size; }
+    public String name(int id) { return names[id]; }
+    public double distance(int id) { return distances[id]; }
+    // id of the newest customer with this name or -1 if nobody has it
+    public int idOf(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+    // setter method
+    public void setDistance(int id, double distance) { distances[id] = distance; }
+
+    // order two customers by distance, by name if distances are the same and by id, the older one first, if the
+    // names are the same too, so the heap has one order whatever its shape
+    public int compare(int a, int b) {
+        if (distances[a] < distances[b]) {
+            return -1;
+        } else if (distances[a] == distances[b]) {
+            return compareNameThenId(a, b);
+        } else return 1;
+    }
+
+    // order two customers by name only
+    public int compareName(int a, int b) {
+        return names[a].compareTo(names[b]);
+    }
+
+    // order two customers by name, the older one (lower id) first when they share it
+    public int compareNameThenId(int a, int b) {
+        int c = names[a].compareTo(names[b]);
+        return c != 0 ? c : Integer.compare(a, b);
+    }
+
+    // bitset of the songs target did not rate, rebuilt only when the target or the catalog size changes
+    protected long[] unratedMask(int target) {
+        int songs = songCount();
+        UnratedMask mask = unrated;
+        if (mask == null || mask.target != target || mask.songs != songs) {
+            long[] bits = new long[(songs + 63) >>> 6];
+            Arrays.fill(bits, -1L);
+            RatingRow row = readRow(target, new RatingRow());
+            for (int i = 0; i < row.count; i++) {
+                bits[row.songs[i] >>> 6] &= ~(1L << row.songs[i]);
+            }
+            mask = new UnratedMask(target, songs, bits);
+            unrated = mask;
+        }
+        return mask.bits;
+    }
+
+    // forget the unrated bitset after the ratings of a customer changed
+    protected void ratingsChanged(int id) {
+        UnratedMask mask = unrated;
+        if (mask != null && mask.target == id) unrated = null;
+    }
+
+    // distance formula shared by both layouts
+    static double distance(double cnt, double ratingSum) {
+        if (cnt == 0) return -1; // no common rated song
+        return 1/cnt + ratingSum/cnt;
+    }
+}
@@ -0,0 +1,255 @@
+/**
+ * Description of this file : CustomerStore layout for small catalogs, every customer's ratings in one row of
+ * songCount bytes. calculate compares eight songs per long (SWAR) while every rating fits 0..31, and a bitset of
+ * liked songs per customer finds the songs to recommend with one AND per 64 songs.
+ */
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+// ratings packed in one byte array; row stride is fixed by the first customer
+class DenseCustomerStore extends CustomerStore {
+
+    private int songCount; // row stride of the ratings array, 0 until the first customer is added
+    private byte[] ratings = new byte[0]; // ratings of customer id are in [id*songCount, (id+1)*songCount)
+    private int words; // longs per customer in liked
+    private long[] liked = new long[0]; // bitset of the songs each customer rated >= LIKED, words longs per customer
+    private boolean scalar; // calculate one song at a time instead of eight, also once a rating is outside 0..31
+
+    // SWAR kernel: 8 ratings read as one little endian long, one byte lane per song. While ratings stay within
+    // 0..31, adding 0x7f to a lane or subtracting a rating from 0x80 | rating never carries or borrows into the
+    // next lane, and 8 differences add up to less than 256.
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long LOW7 = 0x7f7f7f7f7f7f7f7fL; // the 7 low bits of every lane
+    private static final long HIGH = 0x8080808080808080L; // the high bit of every lane
+    private static final long ONES = 0x0101010101010101L; // multiplying by it adds every lane into the top one
+    private static final int MAX_CELLS = Integer.MAX_VALUE - 8; // longest array the JVM allocates
+
+    // every row after the first must fit the catalog the first one fixed, and positional rows must cover it
+    @Override
+    protected void checkRow(RatingRow row) {
+        super.checkRow(row);
+        if (songCount == 0) return;
+        if (row.width > songCount) {
+            throw new IllegalArgumentException("song" + row.width + " is outside the catalog of " + songCount + " songs");
+        }
+        if (row.positional && row.width < songCount) {
+            throw new IllegalArgumentException("no rating for song" + (row.width + 1) + " of the catalog of " + songCount + " songs");
+        }
+    }
+
+    // the first row with a song fixes the catalog; customers without ratings before it already have ids, so the
+    // columns start at the current capacity. the store is left as it was if the catalog is too large
+    @Override
+    protected void storeRow(int id, RatingRow row) {
+        if (songCount == 0 && row.width > 0) {
+            int stride = (row.width + 63) >>> 6;
+            byte[] columns = new byte[cells(capacity(), row.width)];
+            long[] bits = new long[cells(capacity(), stride)];
+            ratings = columns;
+            liked = bits;
+            songCount = row.width;
+            words = stride;
+        }
+        int base = id * songCount;
+        for (int i = 0; i < row.count; i++) {
+            int song = row.songs[i];
+            ratings[base + song] = (byte) row.values[i];
+            checkLane(ratings[base + song]);
+            if (row.values[i] >= LIKED) liked[id * words + (song >>> 6)] |= 1L << song;
+        }
+    }
+
+    @Override
+    protected void growRatings(int capacity) {
+        if (songCount > 0) {
+            byte[] columns = Arrays.copyOf(ratings, cells(capacity, songCount));
+            liked = Arrays.copyOf(liked, cells(capacity, words));
+            ratings = columns;
+        }
+    }
+
+    @Override
+    protected int maxCapacity() {
+        return songCount == 0 ? super.maxCapacity() : MAX_CELLS / songCount;
+    }
+
+    @Override
+    protected void storeRating(int id, int song, int value) {
+        if (song >= songCount) {
+            throw new IllegalArgumentException("song" + (song + 1) + " is outside the catalog of " + songCount + " songs");
+        }
+        ratings[id * songCount + song] = (byte) value;
+        checkLane((byte) value);
+        int w = id * words + (song >>> 6);
+        if (value >= LIKED) liked[w] |= 1L << song;
+        else liked[w] &= ~(1L << song);
+    }
+
+    @Override
+    protected void writeRatings(SnapshotWriter out) {
+        out.putInt(songCount);
+        out.putBytes(ratings, 0, size * songCount);
+        out.putLongs(liked, 0, size * words);
+    }
+
+    @Override
+    protected void readRatings(SnapshotReader in, int size, int capacity) {
+        songCount = in.getCount(size); // a rating of every customer per song
+        words = (songCount + 63) >>> 6;
+        try {
+            ratings = new byte[cells(capacity, songCount)];
+            liked = new long[cells(capacity, words)];
+        } catch (IllegalArgumentException e) {
+            throw in.error(e.getMessage());
+        }
+        in.getBytes(ratings, 0, size * songCount);
+        in.getLongs(liked, 0, size * words);
+        for (int i = 0, n = size * songCount; i < n && !scalar; i++) checkLane(ratings[i]);
+    }
+
+    // length of an array of rows of the given width for that many customers
+    private static int cells(long customers, int width) {
+        long cells = customers * width;
+        if (cells > MAX_CELLS) {
+            throw new IllegalArgumentException("a catalog of " + width + " songs for " + customers + " customers is more than the "
+                    + MAX_CELLS + " ratings one array holds");
+        }
+        return (int) cells;
+    }
+
+    // a rating the SWAR lanes cannot hold switches calculate to the scalar loop for good
+    private void checkLane(byte rating) {
+        if (rating < 0 || rating > 31) scalar = true;
+    }
+
+    @Override
+    public int songCount() { return songCount; }
+
+    @Override
+    public int rating(int id, int song) { return ratings[id * songCount + song]; }
+
+    @Override
+    public double calculate(int target, int other) {
+        if (scalar) return calculateScalar(target, other);
+        int t = target * songCount;
+        int o = other * songCount;
+        int songs = songCount & ~7;
+        long pair = 0;
+        for (int i = 0; i < songs; i += 8) {
+            pair += countAndSum((long) LONGS.get(ratings, t + i), (long) LONGS.get(ratings, o + i));
+        }
+        return finish(pair, t, o, songs);
+    }
+
+    // one target row against a block of consecutive rows: the target's words are read once for the whole block
+    @Override
+    public void calculateRange(int target, int from, int to, double[] out) {
+        if (scalar) {
+            super.calculateRange(target, from, to, out);
+            return;
+        }
+        int t = target * songCount;
+        int songs = songCount & ~7;
+        long[] row = new long[songs >>> 3];
+        for (int w = 0; w < row.length; w++) row[w] = (long) LONGS.get(ratings, t + (w << 3));
+        for (int id = from; id < to; id++) {
+            int o = id * songCount;
+            long pair = 0;
+            for (int w = 0; w < row.length; w++) {
+                pair += countAndSum(row[w], (long) LONGS.get(ratings, o + (w << 3)));
+            }
+            out[id - from] = finish(pair, t, o, songs);
+        }
+    }
+
+    @Override
+    public void useScalarKernel() { scalar = true; }
+
+    // co-rated songs << 32 | sum of their absolute rating differences, for the 8 songs of a and b
+    private static long countAndSum(long a, long b) {
+        long both = (a + LOW7) & (b + LOW7) & HIGH; // high bit of the lanes rated in a and in b
+        if (both == 0) return 0;
+        long x = (a | HIGH) - b; // 0x80 + a - b per lane
+        long y = (b | HIGH) - a; // 0x80 + b - a per lane
+        long ge = ((x & HIGH) >>> 7) * 0xff; // 0xff in the lanes where a >= b
+        long diff = ((x & ge) | (y & ~ge)) & LOW7 & ((both >>> 7) * 0xff); // |a - b| in the co-rated lanes
+        return (long) Long.bitCount(both) << 32 | (diff * ONES) >>> 56; // the top lane gets the sum of all 8
+    }
+
+    // add the songs after the last full word one at a time and turn the count and sum into the distance
+    private double finish(long pair, int t, int o, int from) {
+        int cnt = (int) (pair >>> 32);
+        int ratingSum = (int) pair;
+        for (int i = from; i < songCount; i++) {
+            int a = ratings[t + i];
+            int b = ratings[o + i];
+            if (a != 0 && b != 0) {
+                cnt++;
+                ratingSum += Math.abs(a - b);
+            }
+        }
+        return distance(cnt, ratingSum); // counts are exact in a double, so this matches calculateScalar bit for bit
+    }
+
+    // the original loop, one song at a time
+    double calculateScalar(int target, int other) {
+        int t = target * songCount;
+        int o = other * songCount;
+        double cnt = 0;
+        double ratingSum = 0;
+        for (int i = 0; i < songCount; i++) {
+            int a = ratings[t + i];
+            int b = ratings[o + i];
+            // only consider the song both target and other rated
+            if (a != 0 && b != 0) {
+                cnt += 1;
+                ratingSum += Math.abs(a - b);
+            }
+        }
+        return distance(cnt, ratingSum);
+    }
+
+    // one AND per 64 songs
+    @Override
+    public boolean hasLikedUnrated(int target, int other) {
+        long[] mask = unratedMask(target);
+        int o = other * words;
+        for (int w = 0; w < words; w++) {
+            if ((liked[o + w] & mask[w]) != 0) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void forEachLikedUnrated(int target, int other, RatingSink sink) {
+        long[] mask = unratedMask(target);
+        int o = other * words;
+        for (int w = 0; w < words; w++) {
+            for (long bits = liked[o + w] & mask[w]; bits != 0; bits &= bits - 1) {
+                int song = (w << 6) + Long.numberOfTrailingZeros(bits);
+                sink.accept(song, ratings[other * songCount + song]);
+            }
+        }
+    }
+
+    @Override
+    public void copyRow(int id, int[] row) {
+        int base = id * songCount;
+        for (int i = 0; i < songCount; i++) {
+            row[i] = ratings[base + i];
+        }
+    }
+
+    @Override
+    public RatingRow readRow(int id, RatingRow row) {
+        row.clear();
+        int base = id * songCount;
+        for (int i = 0; i < songCount; i++) {
+            row.add(i, ratings[base + i]);
+        }
+        return row;
+    }
+}
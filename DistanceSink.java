@@ -0,0 +1,9 @@
+/**
+ * Description of this file : callback taking a customer id and its distance from a target, so the indexes can
+ * hand out distances without boxing them or filling a list.
+ */
+
+// receives one customer's distance from a target
+interface DistanceSink {
+    void accept(int id, double distance);
+}
@@ -0,0 +1,41 @@
+/**
+ * Description of this file : growable list of customer ids, sorted in place with a stable merge sort.
+ */
+
+import java.util.Arrays;
+import java.util.function.IntBinaryOperator;
+
+// growable list of customer ids
+class IdList {
+
+    private int[] ids = new int[16];
+    private int size;
+
+    public int size() { return size; }
+    public int get(int i) { return ids[i]; }
+
+    public void add(int id) {
+        if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+        ids[size++] = id;
+    }
+
+    public void clear() { size = 0; }
+
+    // stable merge sort of the ids with the given comparator
+    public void sort(IntBinaryOperator cmp) {
+        int[] buf = new int[size];
+        for (int width = 1; width < size; width *= 2) {
+            for (int lo = 0; lo < size - width; lo += 2 * width) {
+                int mid = lo + width;
+                int hi = Math.min(lo + 2 * width, size);
+                int i = lo, j = mid, k = lo;
+                while (i < mid && j < hi) {
+                    buf[k++] = cmp.applyAsInt(ids[j], ids[i]) < 0 ? ids[j++] : ids[i++];
+                }
+                while (i < mid) buf[k++] = ids[i++];
+                while (j < hi) buf[k++] = ids[j++];
+                System.arraycopy(buf, lo, ids, lo, hi - lo);
+            }
+        }
+    }
+}
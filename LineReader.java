@@ -0,0 +1,172 @@
+/**
+ * Description of this file : streaming reader for the ratings file and the actions file.
+ * Bytes are read through a FileChannel into one reusable buffer and tokenized in place, ratings are parsed
+ * straight into a RatingRow without a String per field, and malformed rows are reported with their line number.
+ */
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// reads a file line by line and splits the current line into space separated tokens
+class LineReader implements Closeable {
+
+    final String fileName;
+    private final FileChannel channel;
+    private byte[] data = new byte[1 << 16];
+    private int limit; // bytes of data read so far
+    private int next; // first byte after the current line
+    private boolean eof;
+
+    int lineNumber; // 1 based number of the current line
+    private int lineStart, lineEnd; // current line without the line break
+    private int tokenStart, tokenEnd; // current token
+    private int pos; // tokenizer position in the current line
+
+    public LineReader(File file) throws IOException {
+        this.fileName = file.getName();
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    }
+
+    // move to the next line; false at the end of the file
+    public boolean nextLine() throws IOException {
+        int i = next;
+        while (true) {
+            while (i < limit && data[i] != '\n') i++;
+            if (i < limit || eof) break;
+            i -= fill();
+        }
+        if (next == limit && eof) return false;
+        lineStart = next;
+        lineEnd = i;
+        next = i < limit ? i + 1 : i;
+        if (lineEnd > lineStart && data[lineEnd - 1] == '\r') lineEnd--;
+        pos = lineStart;
+        lineNumber++;
+        return true;
+    }
+
+    // move the unread bytes to the front of the buffer and read more; return how far they moved
+    private int fill() throws IOException {
+        int shift = next;
+        System.arraycopy(data, next, data, 0, limit - next);
+        limit -= next;
+        next = 0;
+        if (limit == data.length) data = Arrays.copyOf(data, data.length * 2); // line longer than the buffer
+        ByteBuffer buffer = ByteBuffer.wrap(data, limit, data.length - limit);
+        int n = channel.read(buffer);
+        if (n < 0) eof = true;
+        else limit += n;
+        return shift;
+    }
+
+    // true if the current line has nothing but spaces
+    public boolean isBlank() {
+        for (int i = lineStart; i < lineEnd; i++) {
+            if (data[i] != ' ') return false;
+        }
+        return true;
+    }
+
+    // the whole current line without trailing spaces
+    public String line() {
+        int end = lineEnd;
+        while (end > lineStart && data[end - 1] == ' ') end--;
+        return new String(data, lineStart, end - lineStart, StandardCharsets.UTF_8);
+    }
+
+    // move to the next token of the current line; false if there is none
+    public boolean nextToken() {
+        while (pos < lineEnd && data[pos] == ' ') pos++;
+        if (pos == lineEnd) return false;
+        tokenStart = pos;
+        while (pos < lineEnd && data[pos] != ' ') pos++;
+        tokenEnd = pos;
+        return true;
+    }
+
+    // true if the current token is exactly the given ascii word
+    public boolean tokenIs(String word) {
+        return tokenIs(word, tokenEnd);
+    }
+
+    // the current token as a String
+    public String token() {
+        return new String(data, tokenStart, tokenEnd - tokenStart, StandardCharsets.UTF_8);
+    }
+
+    // parse the rest of the line as positional ratings or "songN:rating" pairs
+    public RatingRow readRatings(RatingRow row) {
+        row.clear();
+        int position = 0;
+        while (nextToken()) {
+            int colon = tokenStart;
+            while (colon < tokenEnd && data[colon] != ':') colon++;
+            int song = position++;
+            if (colon == tokenEnd) {
+                row.add(song, rating(tokenStart, tokenEnd));
+                row.positional = true;
+            } else {
+                song = parseInt(tokenStart, colon, "song number") - 1;
+                if (song < 0) throw error("song number must be at least 1 but was " + (song + 1));
+                row.add(song, rating(colon + 1, tokenEnd));
+            }
+            row.give(song);
+        }
+        int repeated = row.repeatedSong(); // the stores would keep both ratings of a sparse row otherwise
+        if (repeated != -1) throw error("song" + (repeated + 1) + " is rated more than once");
+        return row;
+    }
+
+    // the rating in [from, to) of the current line; the store keeps ratings in bytes
+    private int rating(int from, int to) {
+        int value = parseInt(from, to, "rating");
+        if (value > CustomerStore.MAX_RATING) {
+            throw error("rating must be between 0 and " + CustomerStore.MAX_RATING + " but was " + value);
+        }
+        return value;
+    }
+
+    // the current token as a number, with an optional prefix such as "song" in front of the digits
+    public int number(String prefix, String what) {
+        int from = tokenStart;
+        if (tokenEnd - from > prefix.length() && tokenIs(prefix, tokenStart + prefix.length())) from += prefix.length();
+        return parseInt(from, tokenEnd, what);
+    }
+
+    // true if the bytes of the current token up to end are the given ascii word
+    private boolean tokenIs(String word, int end) {
+        if (end - tokenStart != word.length()) return false;
+        for (int i = 0; i < word.length(); i++) {
+            if (data[tokenStart + i] != word.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    // parse the digits in [from, to) of the current line
+    private int parseInt(int from, int to, String what) {
+        if (from == to || to - from > 9) throw error("expected a " + what + " but found '" + token() + "'");
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = data[i] - '0';
+            if (digit < 0 || digit > 9) throw error("expected a " + what + " but found '" + token() + "'");
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    // error pointing at the current line
+    public IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(fileName + ":" + lineNumber + ": " + message);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,180 @@
+/**
+ * Description of this file : load test of a running RecommendationServer.
+ * T client threads send requests for S seconds after W seconds of warm up. Each request is drawn from a mix of
+ * RecommendSongs for the target, RecommendSongs <name> for customers of the server's table, and AddCustomer of a
+ * new customer with random ratings. The report gives the requests per second and the p50/p90/p99/max latency of
+ * every kind of request, and of all of them together.
+ *
+ * usage : java LoadTest [--url=http://127.0.0.1:8080] [--threads=T] [--seconds=S] [--warmup=W] [--mix=R,N,A]
+ *         (--mix gives the weights of RecommendSongs, RecommendSongs <name> and AddCustomer, 80,15,5 by default)
+ */
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class LoadTest {
+
+    private static final String[] KINDS = {"RecommendSongs", "RecommendSongs <name>", "AddCustomer"};
+
+    private final String url;
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    private final int[] mix;
+    private final List<String> names = new ArrayList<>(); // customers of the table, for RecommendSongs <name>
+    private int songs; // ratings per customer of the table, for AddCustomer
+
+    private LoadTest(String url, int[] mix) {
+        this.url = url;
+        this.mix = mix;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String url = "http://127.0.0.1:8080";
+        int threads = 8, seconds = 10, warmup = 2;
+        int[] mix = {80, 15, 5};
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            String name = eq < 0 ? arg : arg.substring(0, eq);
+            String value = eq < 0 ? "" : arg.substring(eq + 1);
+            switch (name) {
+                case "--url": url = value; break;
+                case "--threads": threads = Integer.parseInt(value); break;
+                case "--seconds": seconds = Integer.parseInt(value); break;
+                case "--warmup": warmup = Integer.parseInt(value); break;
+                case "--mix": mix = Arrays.stream(value.split(",")).mapToInt(Integer::parseInt).toArray(); break;
+                default: throw new IllegalArgumentException("unknown option " + arg);
+            }
+        }
+        if (mix.length != KINDS.length) throw new IllegalArgumentException("--mix needs three weights, e.g. --mix=80,15,5");
+        LoadTest test = new LoadTest(url, mix);
+        test.readTable();
+        test.run(threads, seconds, warmup);
+    }
+
+    // names and catalog size from PrintCustomerDistanceRatings: a header line, the target line without a
+    // distance, then "distance name ratings..." lines
+    private void readTable() throws IOException, InterruptedException {
+        String[] lines = get("/PrintCustomerDistanceRatings").split("\n");
+        if (lines.length < 2) throw new IOException("the server sent no table");
+        String[] target = lines[1].trim().split("\\s+");
+        songs = target.length - 1;
+        for (int i = 2; i < lines.length; i++) names.add(lines[i].trim().split("\\s+")[1]);
+        if (names.isEmpty()) names.add(target[0]);
+        System.out.printf("%d customers, %d songs at %s%n", names.size() + 1, songs, url);
+    }
+
+    // every thread sends requests until the end; latencies are only kept after the warm up
+    private void run(int threads, int seconds, int warmup) throws InterruptedException {
+        long measureFrom = System.nanoTime() + warmup * 1_000_000_000L;
+        long end = measureFrom + seconds * 1_000_000_000L;
+        Samples[][] samples = new Samples[threads][KINDS.length];
+        int[] errors = new int[threads];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            for (int k = 0; k < KINDS.length; k++) samples[t][k] = new Samples();
+            workers[t] = new Thread(() -> {
+                Random random = new Random(thread);
+                int added = 0;
+                long now;
+                while ((now = System.nanoTime()) < end) {
+                    int kind = pick(random);
+                    boolean ok;
+                    try {
+                        if (kind == 0) ok = get("/RecommendSongs").startsWith("RecommendSongs");
+                        else if (kind == 1) ok = get("/RecommendSongs?name=" + URLEncoder.encode(names.get(random.nextInt(names.size())), StandardCharsets.UTF_8)).startsWith("RecommendSongs");
+                        else ok = post("/AddCustomer", customer("load" + thread + "x" + added++, random)).startsWith("AddCustomer");
+                    } catch (IOException e) {
+                        ok = false;
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    long done = System.nanoTime();
+                    if (now < measureFrom) continue;
+                    if (ok) samples[thread][kind].add(done - now);
+                    else errors[thread]++;
+                }
+            }, "load-" + t);
+            workers[t].start();
+        }
+        for (Thread worker : workers) worker.join();
+        System.out.printf("%-24s %10s %10s %11s %11s %11s %11s%n", "request", "count", "req/s", "p50 us", "p90 us", "p99 us", "max us");
+        Samples all = new Samples();
+        for (int k = 0; k < KINDS.length; k++) {
+            Samples kind = new Samples();
+            for (int t = 0; t < threads; t++) kind.addAll(samples[t][k]);
+            all.addAll(kind);
+            report(KINDS[k], kind, seconds);
+        }
+        report("all", all, seconds);
+        System.out.printf("%-24s %10d%n", "errors", Arrays.stream(errors).sum());
+    }
+
+    private static void report(String name, Samples samples, int seconds) {
+        if (samples.size == 0) return;
+        long[] nanos = Arrays.copyOf(samples.values, samples.size);
+        Arrays.sort(nanos);
+        System.out.printf("%-24s %10d %10.0f %11.1f %11.1f %11.1f %11.1f%n", name, nanos.length, (double) nanos.length / seconds,
+                percentile(nanos, 0.50), percentile(nanos, 0.90), percentile(nanos, 0.99), nanos[nanos.length - 1] / 1e3);
+    }
+
+    // microseconds at quantile q of sorted nanoseconds
+    private static double percentile(long[] nanos, double q) {
+        int i = (int) Math.ceil(q * nanos.length) - 1;
+        return nanos[Math.max(0, i)] / 1e3;
+    }
+
+    // kind of the next request, by the weights of --mix
+    private int pick(Random random) {
+        int total = 0;
+        for (int weight : mix) total += weight;
+        int r = random.nextInt(total);
+        int kind = 0;
+        while (r >= mix[kind]) r -= mix[kind++];
+        return kind;
+    }
+
+    // AddCustomer line of a new customer rating about a third of the songs
+    private String customer(String name, Random random) {
+        StringBuilder sb = new StringBuilder(name);
+        for (int s = 0; s < songs; s++) sb.append(' ').append(random.nextInt(3) == 0 ? 1 + random.nextInt(5) : 0);
+        return sb.toString();
+    }
+
+    private String get(String path) throws IOException, InterruptedException {
+        return send(HttpRequest.newBuilder(URI.create(url + path)).GET().build());
+    }
+
+    private String post(String path, String body) throws IOException, InterruptedException {
+        return send(HttpRequest.newBuilder(URI.create(url + path)).POST(HttpRequest.BodyPublishers.ofString(body)).build());
+    }
+
+    private String send(HttpRequest request) throws IOException, InterruptedException {
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) throw new IOException(request.uri() + ": " + response.statusCode() + " " + response.body());
+        return response.body();
+    }
+
+    // growable array of latencies in nanoseconds
+    private static class Samples {
+        long[] values = new long[1024];
+        int size;
+
+        void add(long value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        void addAll(Samples other) {
+            for (int i = 0; i < other.size; i++) add(other.values[i]);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * Description of this file : shard on its own thread of this process, for --shards=N.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+// shard on its own thread of this process; that thread loads the rows and answers every request in order
+class LocalShard implements Shard {
+
+    private static final int QUEUED = 4096; // requests waiting for the shard before tell blocks
+
+    private final ShardCore core = new ShardCore();
+    private final ExecutorService thread;
+    private final Semaphore room = new Semaphore(QUEUED);
+    private final ArrayDeque<Future<byte[]>> answers = new ArrayDeque<>();
+    private volatile Exception failure; // a told request that failed, reported by the next receive
+
+    LocalShard(int index) {
+        thread = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "shard-" + index);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @Override
+    public void tell(byte[] request) throws IOException {
+        submit(request);
+    }
+
+    @Override
+    public void ask(byte[] request) throws IOException {
+        answers.add(submit(request));
+    }
+
+    private Future<byte[]> submit(byte[] request) throws IOException {
+        try {
+            room.acquire();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+        return thread.submit(() -> {
+            try {
+                return core.handle(request);
+            } catch (Exception e) {
+                failure = e;
+                throw e;
+            } finally {
+                room.release();
+            }
+        });
+    }
+
+    @Override
+    public DataInputStream receive() throws IOException {
+        try {
+            byte[] answer = answers.remove().get();
+            if (failure != null) throw new IOException("shard failed", failure);
+            return new DataInputStream(new ByteArrayInputStream(answer));
+        } catch (ExecutionException e) {
+            throw new IOException("shard failed", e.getCause());
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    @Override
+    public void close() {
+        thread.shutdown();
+    }
+}
@@ -0,0 +1,300 @@
+/**
+ * Description of this file : counters and latency recorders of the hot paths, off unless --metrics is given.
+ * Every recorder is a log-linear histogram like HdrHistogram: values below 64 get a bucket each, larger ones share
+ * 32 buckets per power of two, so a percentile is within about 3% of the recorded value whatever its size, in a
+ * fixed array of counters. Instrumented code asks Metrics.now() for a start time and hands it to since(); both
+ * only read one static flag while metrics are off. With --metrics the recorders are published over JMX as the
+ * MBean RecommendationSystem:type=Metrics and printed to the error stream at exit, and --metrics-every=S prints
+ * them every S seconds as well.
+ */
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+// the recorders, counters and gauges of one process
+class Metrics {
+
+    static boolean enabled; // set once at start by --metrics; nothing is recorded while false
+
+    private static final List<Recorder> RECORDERS = new ArrayList<>();
+    private static final List<Counter> COUNTERS = new ArrayList<>();
+    private static final Map<String, LongSupplier> GAUGES = new ConcurrentSkipListMap<>();
+    private static long started;
+
+    // latencies in nanoseconds, reported in microseconds
+    static final Recorder LOAD = recorder("load", true); // one ratings file
+    static final Recorder PARSE = recorder("parse", true); // one line of the ratings file into the store
+    static final Recorder SCORE = recorder("score", true); // distances of every customer from the target
+    static final Recorder HEAP_BUILD = recorder("heap-build", true); // initial heap of the measurable customers
+    static final Recorder CALCULATE = recorder("calculate", true); // one distance outside the initial scoring
+    static final Recorder ADD_CUSTOMER = recorder("addCus", true);
+    static final Recorder RECOMMEND = recorder("recommend", true); // RecommendSongs for the target
+    static final Recorder RECOMMEND_NAMED = recorder("recommend-named", true); // RecommendSongs <name>
+    static final Recorder HTTP = recorder("http", true); // one request of RecommendationServer, answer sent
+    // customers of the heap RecommendSongs looked at before it found one with a song to recommend, or gave up
+    static final Recorder CANDIDATES = recorder("recommend.candidates", false);
+
+    static final Counter CUSTOMERS_LOADED = counter("customers.loaded");
+    static final Counter MEASURABLE = counter("distances.measurable");
+    static final Counter UNMEASURABLE = counter("distances.unmeasurable"); // no common rated song, distance -1
+    static final Counter RECOMMEND_NONE = counter("recommend.none"); // RecommendSongs answered none
+    static final Counter COALESCED = counter("recommend.coalesced"); // server requests answered by another one's lookup
+
+    private static Recorder recorder(String name, boolean nanos) {
+        Recorder recorder = new Recorder(name, nanos);
+        RECORDERS.add(recorder);
+        return recorder;
+    }
+
+    private static Counter counter(String name) {
+        Counter counter = new Counter(name);
+        COUNTERS.add(counter);
+        return counter;
+    }
+
+    // start time for Recorder.since, or 0 while metrics are off
+    static long now() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    // a value read when the metrics are reported, e.g. the heap size; a gauge of the same name is replaced
+    static void gauge(String name, LongSupplier value) {
+        if (enabled) GAUGES.put(name, value);
+    }
+
+    // turn the metrics on, publish them over JMX, print them at exit and every `every` seconds if positive
+    static void start(int every) {
+        if (enabled) return;
+        enabled = true;
+        started = System.nanoTime();
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(),
+                    new ObjectName("RecommendationSystem:type=Metrics"));
+        } catch (JMException e) {
+            System.err.println("metrics: not published over JMX: " + e);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> report(System.err)));
+        if (every > 0) {
+            ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "metrics");
+                thread.setDaemon(true);
+                return thread;
+            });
+            timer.scheduleAtFixedRate(() -> report(System.err), every, every, TimeUnit.SECONDS);
+        }
+    }
+
+    // every recorder with samples, then the counters and gauges
+    static synchronized void report(PrintStream out) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("metrics after %.3f s%n", (System.nanoTime() - started) / 1e9));
+        sb.append(String.format("  %-22s %10s %12s %12s %12s %12s %12s%n", "recorder", "count", "mean", "p50", "p90", "p99", "max"));
+        for (Recorder r : RECORDERS) {
+            if (r.count() == 0) continue;
+            sb.append(String.format("  %-22s %10d %12.2f %12.2f %12.2f %12.2f %12.2f%s%n", r.name, r.count(), r.mean(),
+                    r.percentile(50), r.percentile(90), r.percentile(99), r.max(), r.nanos ? " us" : ""));
+        }
+        for (Counter c : COUNTERS) sb.append(String.format("  %-22s %10d%n", c.name, c.get()));
+        for (Map.Entry<String, LongSupplier> g : GAUGES.entrySet()) {
+            sb.append(String.format("  %-22s %10d%n", g.getKey(), g.getValue().getAsLong()));
+        }
+        out.print(sb);
+        out.flush();
+    }
+
+    // a count that only goes up, on striped cells for many threads
+    static class Counter {
+        final String name;
+        private final LongAdder count = new LongAdder();
+
+        Counter(String name) {
+            this.name = name;
+        }
+
+        void add(long n) {
+            if (enabled) count.add(n);
+        }
+
+        void increment() {
+            if (enabled) count.increment();
+        }
+
+        long get() {
+            return count.sum();
+        }
+    }
+
+    // log-linear histogram of non-negative values
+    static class Recorder {
+        private static final int SUB_BITS = 5; // 32 buckets per power of two
+        private static final int SUB = 1 << SUB_BITS;
+        private static final int BUCKETS = 2 * SUB + (63 - SUB_BITS - 1) * SUB;
+
+        final String name;
+        final boolean nanos; // values are nanoseconds, reported as microseconds
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder total = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        Recorder(String name, boolean nanos) {
+            this.name = name;
+            this.nanos = nanos;
+        }
+
+        // record the time since a start taken from Metrics.now()
+        void since(long start) {
+            if (enabled) record(System.nanoTime() - start);
+        }
+
+        void record(long value) {
+            if (!enabled) return;
+            if (value < 0) value = 0;
+            counts.incrementAndGet(bucket(value));
+            total.increment();
+            sum.add(value);
+            if (value > max.get()) max.accumulateAndGet(value, Math::max);
+        }
+
+        // values below 2 * SUB are exact; above, the top SUB_BITS + 1 bits pick the bucket
+        static int bucket(long value) {
+            if (value < 2 * SUB) return (int) value;
+            int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+            return 2 * SUB + (shift - 1) * SUB + (int) (value >>> shift) - SUB;
+        }
+
+        // largest value that falls into the bucket
+        static long highest(int bucket) {
+            if (bucket < 2 * SUB) return bucket;
+            int shift = (bucket - 2 * SUB) / SUB + 1;
+            long top = SUB + (bucket - 2 * SUB) % SUB;
+            return ((top + 1) << shift) - 1;
+        }
+
+        long count() {
+            return total.sum();
+        }
+
+        double mean() {
+            long n = count();
+            return n == 0 ? 0 : scale((double) sum.sum() / n);
+        }
+
+        double max() {
+            return scale(max.get());
+        }
+
+        // value at or below which p percent of the samples are, as the bucket's highest value but never above max
+        double percentile(double p) {
+            long n = count();
+            if (n == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(p / 100 * n));
+            long seen = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                seen += counts.get(b);
+                if (seen >= rank) return scale(Math.min(highest(b), max.get()));
+            }
+            return max();
+        }
+
+        private double scale(double value) {
+            return nanos ? value / 1e3 : value;
+        }
+    }
+
+    // JMX view of the metrics: <recorder>.count, .mean, .p50, .p90, .p99 and .max, every counter and every gauge,
+    // all read only and read at the time of the request
+    private static class MetricsMBean implements DynamicMBean {
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            int dot = attribute.lastIndexOf('.');
+            if (dot > 0) {
+                String stat = attribute.substring(dot + 1);
+                for (Recorder r : RECORDERS) {
+                    if (!r.name.equals(attribute.substring(0, dot))) continue;
+                    switch (stat) {
+                        case "count": return r.count();
+                        case "mean": return r.mean();
+                        case "p50": return r.percentile(50);
+                        case "p90": return r.percentile(90);
+                        case "p99": return r.percentile(99);
+                        case "max": return r.max();
+                        default: break;
+                    }
+                }
+            }
+            for (Counter c : COUNTERS) {
+                if (c.name.equals(attribute)) return c.get();
+            }
+            LongSupplier gauge = GAUGES.get(attribute);
+            if (gauge != null) return gauge.getAsLong();
+            throw new AttributeNotFoundException(attribute);
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                try {
+                    list.add(new Attribute(attribute, getAttribute(attribute)));
+                } catch (AttributeNotFoundException e) {
+                    // left out, as getAttributes does for unknown names
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException(attribute.getName() + " is read only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String action, Object[] params, String[] signature) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(action));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (Recorder r : RECORDERS) {
+                String unit = r.nanos ? " in microseconds" : "";
+                attributes.add(new MBeanAttributeInfo(r.name + ".count", "long", "samples of " + r.name, true, false, false));
+                for (String stat : new String[]{"mean", "p50", "p90", "p99", "max"}) {
+                    attributes.add(new MBeanAttributeInfo(r.name + "." + stat, "double", stat + " of " + r.name + unit, true, false, false));
+                }
+            }
+            for (Counter c : COUNTERS) attributes.add(new MBeanAttributeInfo(c.name, "long", c.name, true, false, false));
+            for (String gauge : GAUGES.keySet()) attributes.add(new MBeanAttributeInfo(gauge, "long", gauge, true, false, false));
+            return new MBeanInfo(Metrics.class.getName(), "latencies and counts of the recommendation system",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[0], null);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/**
+ * Description of this file : min heap of customer ids ordered by the distances and names of a CustomerStore.
+ * Positions are tracked per id so a customer can be found, moved or taken out without a search, and the last
+ * RecommendSongs answer is cached until the heap changes.
+ */
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+// priority queue implementation over customer ids; ordering comes from the customer store
+class MinHeap {
+
+    protected final CustomerStore store; // distances and names used for comparison
+    protected int[] list; // array based min heap of customer ids
+    protected int size;
+    protected int modCount; // changes on every insert and removal so answers can be cached
+    private int[] position = new int[0]; // customer id -> index in list, -1 when the customer is not in the heap
+    private volatile CachedAnswer answer; // last RecommendSongs answer, replaced as a whole so readers can share it
+
+    // answer for a target, valid while the heap has the same modCount
+    private static class CachedAnswer {
+        final int target, modCount;
+        final String line;
+        CachedAnswer(int target, int modCount, String line) {
+            this.target = target;
+            this.modCount = modCount;
+            this.line = line;
+        }
+    }
+
+    public MinHeap(CustomerStore store) {
+        this.store = store;
+        list = new int[16];
+    } // constructor initializing heap
+
+    // method for swapping two elements in an array
+    protected void swap(int i, int j){
+        int temp = list[i];
+        list[i] = list[j];
+        list[j] = temp;
+        position[list[i]] = i;
+        position[list[j]] = j;
+    }
+
+    protected int parent(int n) {
+        return (n - 1) / 2;
+    } // element's parent index
+    protected int left(int n) {
+        return n*2+1;
+    } // element's left child index
+    protected int right(int n){
+        return n*2+2;
+    } // element's right child index
+    protected boolean hasLeft(int n) { return left(n) < size; } // check if it has left child
+    protected boolean hasRight(int n) {
+        return right(n) < size;
+    } // check if it has right child
+
+    // upHeap the element in the position n
+    protected void upHeap(int n) {
+        // 0 is the root node index, so do upHeap before reaching to the root.
+        while (n > 0) {
+            int p = parent(n);
+            // do swap if current customer is smaller than a parent customer
+            if (store.compare(list[n], list[p]) < 0) {
+                swap(n, p);
+                n = p;
+            } else break; // stop if current is smaller than parent
+        }
+    }
+
+    // downHeap the customer in a position n
+    protected void downHeap(int n) {
+        // do down heap if it has child node.
+        while (hasLeft(n)) {
+            int leftIdx = left(n);
+            int minIdx = left(n); // store the minimum's index among left and right.
+            // update minIdx if it has right child and this is smaller than left child
+            if (hasRight(n)){
+                int rightIdx = right(n);
+                if (store.compare(list[rightIdx], list[leftIdx]) < 0){
+                    minIdx = rightIdx;
+                }
+            }
+            // swap if child is smaller than current or else break
+            if (store.compare(list[minIdx], list[n]) < 0) {
+                swap(minIdx, n);
+                n = minIdx;
+            } else break;
+        }
+    }
+
+    // append a customer id at the end of the array without restoring the heap order
+    protected void append(int id) {
+        if (size == list.length) list = Arrays.copyOf(list, size * 2);
+        if (id >= position.length) growPosition(id);
+        position[id] = size;
+        list[size++] = id;
+        modCount++;
+    }
+
+    // room for the position of id; grown only while appending, so building subtrees in parallel never grows it
+    private void growPosition(int id) {
+        int old = position.length;
+        position = Arrays.copyOf(position, Math.max(id + 1, old * 2));
+        Arrays.fill(position, old, position.length, -1);
+    }
+
+    // true if the customer is in the heap
+    public boolean contains(int id) {
+        return id < position.length && position[id] >= 0;
+    }
+
+    // restore the heap order around a customer whose distance changed, in O(log n)
+    public void update(int id) {
+        int n = position[id];
+        upHeap(n);
+        downHeap(position[id]);
+        modCount++;
+    }
+
+    // take any customer out of the heap in O(log n): the last element takes its place and moves up or down
+    public void remove(int id) {
+        int n = position[id];
+        position[id] = -1;
+        size--;
+        modCount++;
+        if (n == size) return;
+        int moved = list[size];
+        list[n] = moved;
+        position[moved] = n;
+        upHeap(n);
+        downHeap(position[moved]);
+    }
+
+    // insert a customer into a minHeap and place it into the right place.
+    public void insert(int id) {
+        append(id);
+        upHeap(size-1);
+    }
+
+    // remove the min customer from the heap; -1 if the heap is empty
+    public int removeMin(){
+        if (size == 0) return -1;
+        // update the minHeap after get the min customer
+        int temp = list[0];
+        list[0] = list[--size];
+        position[list[0]] = 0;
+        position[temp] = -1;
+        modCount++;
+        downHeap(0);
+        return temp;
+    }
+
+    // first customer in distance order accepted by match, or -1; the heap is not changed.
+    // walks the heap best-first with a second heap of list indices: the frontier starts with the root, and
+    // every rejected node is replaced by its children, so inspecting k customers costs O(k log k).
+    // only reads the heap, so several threads may walk it at once.
+    public int findFirst(IntPredicate match) {
+        if (size == 0) return -1;
+        int[] frontier = new int[16];
+        int count = 1;
+        frontier[0] = 0;
+        while (count > 0) {
+            int n = frontier[0]; // smallest unvisited node
+            if (match.test(list[n])) return list[n];
+            // replace it by its left child, or drop it if it is a leaf, then add the right child
+            if (hasLeft(n)) {
+                frontier[0] = left(n);
+            } else {
+                frontier[0] = frontier[--count];
+            }
+            siftFrontier(frontier, 0, count);
+            if (hasRight(n)) {
+                if (count == frontier.length) frontier = Arrays.copyOf(frontier, count * 2);
+                int i = count++;
+                frontier[i] = right(n);
+                // upHeap of the frontier
+                while (i > 0 && store.compare(list[frontier[i]], list[frontier[(i - 1) / 2]]) < 0) {
+                    int p = (i - 1) / 2;
+                    int t = frontier[i]; frontier[i] = frontier[p]; frontier[p] = t;
+                    i = p;
+                }
+            }
+        }
+        return -1;
+    }
+
+    // downHeap of the frontier from position i
+    private void siftFrontier(int[] frontier, int i, int count) {
+        while (2 * i + 1 < count) {
+            int c = 2 * i + 1;
+            if (c + 1 < count && store.compare(list[frontier[c + 1]], list[frontier[c]]) < 0) c++;
+            if (store.compare(list[frontier[c]], list[frontier[i]]) >= 0) break;
+            int t = frontier[i]; frontier[i] = frontier[c]; frontier[c] = t;
+            i = c;
+        }
+    }
+
+    // answer cached for this target since the last change of the heap, or null
+    public String cachedAnswer(int target) {
+        CachedAnswer a = answer;
+        return a != null && a.target == target && a.modCount == modCount ? a.line : null;
+    }
+
+    // remember the answer for this target until the heap changes
+    public void cacheAnswer(int target, String line) {
+        answer = new CachedAnswer(target, modCount, line);
+    }
+
+    // get the min distance customer; -1 if the heap is empty
+    public int getMin(){
+        if (size == 0) return -1;
+        return list[0];
+    }
+
+    public int size() { return size; }
+
+    // ids in heap array order, e.g. for a snapshot
+    public int[] toArray() {
+        return Arrays.copyOf(list, size);
+    }
+
+    // replace the content of the heap by ids that are already in heap array order
+    public void restore(int[] ids) {
+        list = Arrays.copyOf(ids, Math.max(16, ids.length));
+        size = ids.length;
+        Arrays.fill(position, -1);
+        for (int i = 0; i < size; i++) {
+            if (list[i] >= position.length) growPosition(list[i]);
+            position[list[i]] = i;
+        }
+        modCount++;
+    }
+
+    // check if minHeap is empty
+    public boolean isEmpty(){
+        return size==0;
+    }
+}
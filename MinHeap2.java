@@ -0,0 +1,66 @@
+/**
+ * Description of this file : MinHeap whose initial heap is built bottom up with buildHeap in O(n), on a pool of
+ * one task per subtree when one is given, instead of one insert per customer.
+ */
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+// all other parts are the same to the HW4 except buildHeap method and heapifying the initial heap in main method
+class MinHeap2 extends MinHeap {
+
+    public MinHeap2(CustomerStore store) {
+        super(store);
+    }
+
+    // bottom up heap construction
+    // down heap from the last internal node index
+    public void buildHeap() {
+        for (int i = (size/2) - 1; i >= 0; i--) {
+            downHeap(i);
+        }
+        modCount++;
+    }
+
+    // bottom up heap construction on a pool: the subtrees below a split level are disjoint, so each one is
+    // heapified by its own task, then the few nodes above the split are downHeaped in the usual order.
+    // every node is still handled after all of its descendants, so the array ends up the same as buildHeap().
+    public void buildHeap(ForkJoinPool pool) {
+        int depth = 0; // split level, deep enough for a few subtrees per worker
+        while ((1 << depth) < pool.getParallelism() * 4) depth++;
+        if (size < PARALLEL_THRESHOLD) {
+            buildHeap();
+            return;
+        }
+        int first = (1 << depth) - 1; // first subtree root
+        pool.submit(() -> IntStream.range(first, 2 * first + 1).parallel().forEach(this::buildSubtree)).join();
+        for (int i = first - 1; i >= 0; i--) {
+            downHeap(i);
+        }
+        modCount++;
+    }
+
+    private static final int PARALLEL_THRESHOLD = 1 << 15;
+
+    // bottom up heap construction of the subtree rooted at r, deepest level first
+    private void buildSubtree(int r) {
+        int levels = 0; // levels of the subtree below r
+        while (((long) (r + 1) << (levels + 1)) - 1 < size) levels++;
+        for (int k = levels; k >= 0; k--) {
+            int from = ((r + 1) << k) - 1; // nodes of the subtree k levels below r are [from, from + 2^k)
+            int to = Math.min(from + (1 << k), size);
+            for (int i = to - 1; i >= from; i--) {
+                if (hasLeft(i)) downHeap(i);
+            }
+        }
+    }
+
+    public void addElement(int id) {
+        append(id);
+    }
+
+    // append ids without restoring the heap order
+    public void addElements(int[] ids) {
+        for (int id : ids) append(id);
+    }
+}
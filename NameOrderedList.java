@@ -0,0 +1,158 @@
+/**
+ * Description of this file : customer ids kept in name order for PrintCustomerDistanceRatings.
+ * Ids live in fixed size sorted chunks, so adding one customer is a binary search over the chunks and inside one
+ * chunk plus a short array copy instead of sorting the whole customer list again.
+ */
+
+import java.util.ArrayList;
+import java.util.function.IntConsumer;
+
+// name ordered customer ids; customers with the same name stay in the order they were added
+class NameOrderedList {
+
+    private static final int CHUNK = 512; // ids per chunk
+    private static final int FILL = CHUNK * 3 / 4; // ids per chunk after a full rebuild
+
+    // sorted run of ids
+    private static class Chunk {
+        final int[] ids = new int[CHUNK];
+        int size;
+        int last() { return ids[size - 1]; }
+    }
+
+    private final CustomerStore store;
+    private ArrayList<Chunk> chunks = new ArrayList<>();
+    private int size;
+    private final IdList pending = new IdList(); // ids added since the last read, merged in one pass when needed
+
+    // build the list from ids already sorted by name
+    public NameOrderedList(CustomerStore store, IdList sorted) {
+        this.store = store;
+        Chunk chunk = null;
+        for (int i = 0; i < sorted.size(); i++) {
+            if (chunk == null || chunk.size == FILL) {
+                chunk = new Chunk();
+                chunks.add(chunk);
+            }
+            chunk.ids[chunk.size++] = sorted.get(i);
+        }
+        size = sorted.size();
+    }
+
+    // number of customers including the ones not merged yet
+    public int size() { return size + pending.size(); }
+
+    // add a customer; consecutive adds are merged into the list together on the next read
+    public void add(int id) {
+        pending.add(id);
+    }
+
+    // take a customer out; found by a binary search on its name, then among the customers with the same name
+    public void remove(int id) {
+        flush();
+        // first chunk whose last name is not smaller than the name
+        int lo = 0, hi = chunks.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (store.compareName(chunks.get(mid).last(), id) < 0) lo = mid + 1;
+            else hi = mid;
+        }
+        for (int c = lo; c < chunks.size(); c++) {
+            Chunk chunk = chunks.get(c);
+            for (int i = 0; i < chunk.size; i++) {
+                if (chunk.ids[i] != id) continue;
+                System.arraycopy(chunk.ids, i + 1, chunk.ids, i, chunk.size - i - 1);
+                chunk.size--;
+                if (chunk.size == 0) chunks.remove(c);
+                size--;
+                return;
+            }
+        }
+    }
+
+    // visit every customer in name order
+    public void forEach(IntConsumer action) {
+        flush();
+        for (Chunk chunk : chunks) {
+            for (int i = 0; i < chunk.size; i++) {
+                action.accept(chunk.ids[i]);
+            }
+        }
+    }
+
+    // merge the pending customers; a few are inserted one by one, a large batch is merged in one pass.
+    // after a flush, forEach only reads the list until the next add
+    public void flush() {
+        int n = pending.size();
+        if (n == 0) return;
+        pending.sort(store::compareName); // stable, so equal names keep their order
+        if ((long) n * CHUNK < size) {
+            for (int i = 0; i < n; i++) {
+                insert(pending.get(i));
+            }
+        } else {
+            merge();
+        }
+        pending.clear();
+    }
+
+    // insert one id after every customer whose name is not greater
+    private void insert(int id) {
+        size++;
+        if (chunks.isEmpty()) chunks.add(new Chunk());
+        // first chunk whose last name is greater than the new name, or the last chunk
+        int lo = 0, hi = chunks.size() - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (store.compareName(chunks.get(mid).last(), id) > 0) hi = mid;
+            else lo = mid + 1;
+        }
+        Chunk chunk = chunks.get(lo);
+        if (chunk.size == CHUNK) { // split a full chunk in two halves
+            Chunk right = new Chunk();
+            right.size = CHUNK / 2;
+            System.arraycopy(chunk.ids, CHUNK - right.size, right.ids, 0, right.size);
+            chunk.size -= right.size;
+            chunks.add(lo + 1, right);
+            if (store.compareName(chunk.last(), id) <= 0) chunk = right;
+        }
+        // position after the last id whose name is not greater
+        int from = 0, to = chunk.size;
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            if (store.compareName(chunk.ids[mid], id) > 0) to = mid;
+            else from = mid + 1;
+        }
+        System.arraycopy(chunk.ids, from, chunk.ids, from + 1, chunk.size - from);
+        chunk.ids[from] = id;
+        chunk.size++;
+    }
+
+    // rebuild all chunks by merging the list with the sorted pending ids
+    private void merge() {
+        ArrayList<Chunk> merged = new ArrayList<>();
+        Chunk out = null;
+        int c = 0, i = 0, p = 0;
+        int total = size + pending.size();
+        for (int k = 0; k < total; k++) {
+            while (c < chunks.size() && i == chunks.get(c).size) { // next non empty chunk
+                c++;
+                i = 0;
+            }
+            int id;
+            // take the old id unless the pending one has a strictly smaller name
+            if (p == pending.size() || (c < chunks.size() && store.compareName(chunks.get(c).ids[i], pending.get(p)) <= 0)) {
+                id = chunks.get(c).ids[i++];
+            } else {
+                id = pending.get(p++);
+            }
+            if (out == null || out.size == FILL) {
+                out = new Chunk();
+                merged.add(out);
+            }
+            out.ids[out.size++] = id;
+        }
+        chunks = merged;
+        size = total;
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * Description of this file : nearest neighbours of any customer, not only the target of the ratings file.
+ * The k nearest measurable customers of a requested customer are computed on demand with the same distance as
+ * calculate, kept in an LRU cache bounded by memory, and updated in place when AddCustomer brings a closer customer.
+ */
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// LRU cache of Neighbours per customer; one lock guards it so concurrent readers may use it
+class NeighbourCache {
+
+    private final CustomerStore store;
+    private final int k; // neighbours computed at first
+    private final long budget; // bytes the cached lists may use
+    private long used;
+    private final LinkedHashMap<Integer, Neighbours> cache = new LinkedHashMap<>(16, 0.75f, true);
+
+    public NeighbourCache(CustomerStore store, int k, long budget) {
+        this.store = store;
+        this.k = Math.max(1, k);
+        this.budget = budget;
+    }
+
+    // the k nearest customers of target, from the cache when possible
+    public synchronized Neighbours nearest(int target, int k) {
+        Neighbours n = cache.get(target);
+        if (n == null || (n.capacity() < k && !n.complete)) {
+            n = compute(target, k);
+            put(n);
+        }
+        return n;
+    }
+
+    // RecommendSongs line for any customer: the closest neighbour rated >= 4 a song the customer did not rate
+    public synchronized String recommend(int target) {
+        int k = this.k;
+        while (true) {
+            Neighbours n = nearest(target, k);
+            for (int i = 0; i < n.size; i++) {
+                if (store.hasLikedUnrated(target, n.ids[i])) return RecommendationSystem.answer(store, target, n.ids[i]);
+            }
+            if (n.complete) return RecommendationSystem.answer(store, target, -1);
+            k = n.capacity() * 4; // every cached neighbour was rejected, look further
+        }
+    }
+
+    // keep the cached lists right after a customer was added; a list only changes if the new customer is closer
+    // than its last entry, or if the list still has room. a full list that leaves the customer out no longer
+    // holds every measurable customer
+    public synchronized void customerAdded(int id) {
+        for (Neighbours n : cache.values()) {
+            if (n.target == id) continue;
+            double d = store.calculate(n.target, id);
+            if (d == -1) continue;
+            if (n.size == n.capacity() && compare(d, id, n.distances[n.size - 1], n.ids[n.size - 1]) >= 0) {
+                n.complete = false;
+                continue;
+            }
+            insert(n, id, d);
+        }
+    }
+
+    // drop every cached list, e.g. after ratings changed
+    public synchronized void clear() {
+        cache.clear();
+        used = 0;
+    }
+
+    // scan every customer, or only the ones sharing a song when the song index is on, keeping the k closest.
+    // with the approximate index only its shortlist is ranked; a shortlist shorter than k counts as complete
+    private Neighbours compute(int target, int k) {
+        Neighbours n = new Neighbours(target, k);
+        n.complete = true;
+        DistanceSink offer = (id, d) -> {
+            if (n.size == k) {
+                if (compare(d, id, n.distances[k - 1], n.ids[k - 1]) >= 0) {
+                    n.complete = false;
+                    return;
+                }
+            }
+            insert(n, id, d);
+        };
+        AnnIndex ann = store.annIndex();
+        SongIndex index = store.songIndex();
+        if (ann != null) {
+            ann.forEachCandidate(target, offer);
+        } else if (index != null) {
+            index.forEachMeasurable(target, offer);
+        } else {
+            for (int id = 0, size = store.size(); id < size; id++) {
+                if (id == target) continue;
+                double d = store.calculate(target, id);
+                if (d != -1) offer.accept(id, d);
+            }
+        }
+        return n;
+    }
+
+    // insertion into the sorted list, dropping the last entry when it is full
+    private void insert(Neighbours n, int id, double d) {
+        int i = n.size;
+        if (i == n.capacity()) {
+            i--;
+            n.complete = false;
+        } else {
+            n.size++;
+        }
+        while (i > 0 && compare(d, id, n.distances[i - 1], n.ids[i - 1]) < 0) {
+            n.ids[i] = n.ids[i - 1];
+            n.distances[i] = n.distances[i - 1];
+            i--;
+        }
+        n.ids[i] = id;
+        n.distances[i] = d;
+    }
+
+    // same order as CustomerStore.compare for a distance that is not stored in the store, and the older customer
+    // first for the same name, so the order does not depend on the order the customers are offered in
+    private int compare(double d1, int id1, double d2, int id2) {
+        if (d1 < d2) return -1;
+        if (d1 > d2) return 1;
+        return store.compareNameThenId(id1, id2);
+    }
+
+    // cache a list and evict the least recently used ones over the budget
+    private void put(Neighbours n) {
+        Neighbours old = cache.put(n.target, n);
+        if (old != null) used -= old.bytes();
+        used += n.bytes();
+        Iterator<Map.Entry<Integer, Neighbours>> it = cache.entrySet().iterator();
+        while (used > budget && cache.size() > 1 && it.hasNext()) {
+            Neighbours eldest = it.next().getValue();
+            if (eldest == n) continue;
+            used -= eldest.bytes();
+            it.remove();
+        }
+    }
+}
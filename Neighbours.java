@@ -0,0 +1,24 @@
+/**
+ * Description of this file : the nearest customers of one customer as parallel id and distance arrays, the
+ * entry NeighbourCache keeps per customer and TopKRecommender reads.
+ */
+
+// k nearest customers of one customer, closest first, ordered by distance, name, then id like the heap
+class Neighbours {
+
+    final int target;
+    int[] ids;
+    double[] distances;
+    int size;
+    boolean complete; // true if every measurable customer is in the list
+
+    Neighbours(int target, int k) {
+        this.target = target;
+        this.ids = new int[k];
+        this.distances = new double[k];
+    }
+
+    int capacity() { return ids.length; }
+
+    long bytes() { return 64 + 12L * ids.length; }
+}
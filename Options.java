@@ -0,0 +1,133 @@
+/**
+ * Description of this file : optional command line switches following the ratings and actions file names.
+ * Without any switch both programs behave exactly like the original homework.
+ */
+
+import java.util.concurrent.ForkJoinPool;
+
+// options given after the two file names, e.g. "ratings.txt actions.txt --sparse"
+class Options {
+
+    boolean sparse; // --sparse : keep ratings as sorted (song, rating) runs for large catalogs
+    boolean scalar; // --scalar : calculate one song at a time instead of eight songs per long
+    boolean index; // --index : keep an inverted song -> customers index and score only customers sharing a song
+    boolean parallel; // --parallel : score customers and build the initial heap on all cores
+    boolean keepHeap; // --keep-heap : RecommendSongs walks the heap without removing customers
+    int neighbours = 32; // --neighbours=K : nearest customers cached per customer for "RecommendSongs <name>"
+    long cacheBytes = 64L << 20; // --cache-mb=N : memory bound of the neighbour cache
+    int batch; // --batch[=N] : answer the actions N at a time on all cores, 0 for one at a time
+    String tableFile; // --table-file=PATH : write the PrintCustomerDistanceRatings tables to a file, not the output
+    String snapshot; // --snapshot=PATH : start from this binary snapshot if it exists, write it at the end
+    String log; // --log=PATH : append every change to this log and replay it at start
+    int logSync = 256; // --log-sync=N : changes written to the log between two forces to disk
+    int checkpointEvery = 1 << 16; // --checkpoint-every=N : changes between two snapshots, which empty the log
+    int topK; // --top-k=K : RecommendSongs scores songs over the K nearest customers, 0 for the single nearest one
+    int topN = 5; // --top-n=N : songs answered by RecommendSongs with --top-k
+    int annTables; // --ann[=L] : approximate neighbours of named customers from L hash tables, 0 for exact ones
+    int annRows = 2; // --ann-rows=R : MinHash values per bucket key, more for smaller buckets
+    int shards; // --shards=N : customers split by name hash over N shards on their own threads
+    String[] workers; // --workers=host:port,... : the shards are ShardWorker processes listening there
+    boolean metrics; // --metrics : record latencies and counts, publish them over JMX and print them at exit
+    int metricsEvery; // --metrics-every=S : print the metrics every S seconds as well, implies --metrics
+    private ForkJoinPool pool;
+
+    // parse the switches starting at args[from]
+    public static Options parse(String[] args, int from) {
+        Options options = new Options();
+        for (int i = from; i < args.length; i++) {
+            int eq = args[i].indexOf('=');
+            String name = eq < 0 ? args[i] : args[i].substring(0, eq);
+            String value = eq < 0 ? null : args[i].substring(eq + 1);
+            switch (name) {
+                case "--sparse":
+                    options.sparse = true;
+                    break;
+                case "--scalar":
+                    options.scalar = true;
+                    break;
+                case "--index":
+                    options.index = true;
+                    break;
+                case "--parallel":
+                    options.parallel = true;
+                    break;
+                case "--keep-heap":
+                    options.keepHeap = true;
+                    break;
+                case "--neighbours":
+                    options.neighbours = number(name, value);
+                    break;
+                case "--cache-mb":
+                    options.cacheBytes = (long) number(name, value) << 20;
+                    break;
+                case "--batch":
+                    options.batch = value == null ? 4096 : number(name, value);
+                    break;
+                case "--table-file":
+                    if (value == null || value.isEmpty()) throw new IllegalArgumentException(name + " needs a file, e.g. " + name + "=tables.txt");
+                    options.tableFile = value;
+                    break;
+                case "--snapshot":
+                    if (value == null || value.isEmpty()) throw new IllegalArgumentException(name + " needs a file, e.g. " + name + "=state.snap");
+                    options.snapshot = value;
+                    break;
+                case "--log":
+                    if (value == null || value.isEmpty()) throw new IllegalArgumentException(name + " needs a file, e.g. " + name + "=actions.log");
+                    options.log = value;
+                    break;
+                case "--log-sync":
+                    options.logSync = number(name, value);
+                    break;
+                case "--checkpoint-every":
+                    options.checkpointEvery = number(name, value);
+                    break;
+                case "--top-k":
+                    options.topK = number(name, value);
+                    break;
+                case "--top-n":
+                    options.topN = number(name, value);
+                    break;
+                case "--ann":
+                    options.annTables = value == null ? 16 : number(name, value);
+                    break;
+                case "--ann-rows":
+                    options.annRows = number(name, value);
+                    break;
+                case "--shards":
+                    options.shards = number(name, value);
+                    break;
+                case "--workers":
+                    if (value == null || value.isEmpty()) throw new IllegalArgumentException(name + " needs host:port pairs, e.g. " + name + "=localhost:7001,localhost:7002");
+                    options.workers = value.split(",");
+                    break;
+                case "--metrics":
+                    options.metrics = true;
+                    break;
+                case "--metrics-every":
+                    options.metrics = true;
+                    options.metricsEvery = number(name, value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+        return options;
+    }
+
+    // positive number given to an option
+    private static int number(String name, String value) {
+        try {
+            int n = Integer.parseInt(String.valueOf(value));
+            if (n > 0) return n;
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException(name + " needs a positive number, e.g. " + name + "=8");
+    }
+
+    // worker pool sized to the available cores for --parallel and --batch, null when running sequentially
+    public ForkJoinPool pool() {
+        if ((parallel || batch > 0) && pool == null) pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        return pool;
+    }
+}
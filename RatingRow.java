@@ -0,0 +1,112 @@
+/**
+ * Description of this file : one line of ratings as (song, rating) pairs, reused from line to line.
+ * Positional ratings ("2 5 0 3") and "songN:rating" pairs ("1:2 2:5 4:3") give the same pairs.
+ */
+
+import java.util.Arrays;
+
+// reusable buffer holding one parsed line of ratings as (song, rating) pairs; zero ratings are not kept
+class RatingRow {
+
+    int[] songs = new int[16]; // 0 based song indices
+    int[] values = new int[16]; // ratings parallel to songs
+    int count; // number of pairs
+    int width; // catalog size implied by the line: number of positional ratings or highest song number
+    boolean positional; // some ratings were given by position, so a dense catalog expects one for every song
+    private int[] given = new int[16]; // every song the parsed line rated, zero ratings included
+    private int givenCount;
+
+    public void clear() {
+        count = 0;
+        width = 0;
+        positional = false;
+        givenCount = 0;
+    }
+
+    // add the rating of a song (0 based)
+    public void add(int song, int value) {
+        width = Math.max(width, song + 1);
+        if (value == 0) return;
+        if (count == songs.length) {
+            songs = Arrays.copyOf(songs, count * 2);
+            values = Arrays.copyOf(values, count * 2);
+        }
+        songs[count] = song;
+        values[count++] = value;
+    }
+
+    // note that the line being parsed rates song (0 based), even with a zero rating add does not keep
+    void give(int song) {
+        if (givenCount == given.length) given = Arrays.copyOf(given, givenCount * 2);
+        given[givenCount++] = song;
+    }
+
+    // the first song (0 based) the parsed line rated more than once, or -1. Positional ratings and pairs in song
+    // order are checked in one pass; only a line with pairs out of order is sorted
+    int repeatedSong() {
+        for (int i = 1; i < givenCount; i++) {
+            if (given[i] > given[i - 1]) continue;
+            Arrays.sort(given, 0, givenCount);
+            for (int j = 1; j < givenCount; j++) {
+                if (given[j] == given[j - 1]) return given[j];
+            }
+            return -1;
+        }
+        return -1;
+    }
+
+    // parse tokens[from..] either as positional ratings ("2 5 0 3") or as "songN:rating" pairs ("1:2 2:5 4:3"),
+    // with the rules and messages of LineReader.readRatings
+    public RatingRow parse(String[] tokens, int from) {
+        clear();
+        for (int i = from; i < tokens.length; i++) {
+            String token = tokens[i];
+            int colon = token.indexOf(':');
+            int song = i - from;
+            if (colon < 0) {
+                positional = true;
+            } else {
+                song = parseInt(token, 0, colon, "song number") - 1;
+                if (song < 0) throw new IllegalArgumentException("song number must be at least 1 but was " + (song + 1));
+            }
+            add(song, rating(token, colon + 1, token.length()));
+            give(song);
+        }
+        int repeated = repeatedSong();
+        if (repeated != -1) throw new IllegalArgumentException("song" + (repeated + 1) + " is rated more than once");
+        return this;
+    }
+
+    // the rating in token[from, to); the store keeps ratings in bytes
+    private static int rating(String token, int from, int to) {
+        int value = parseInt(token, from, to, "rating");
+        CustomerStore.checkRating(value);
+        return value;
+    }
+
+    // the digits in token[from, to), no sign and at most 9 of them like LineReader
+    private static int parseInt(String token, int from, int to, String what) {
+        if (from == to || to - from > 9) throw new IllegalArgumentException("expected a " + what + " but found '" + token + "'");
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = token.charAt(i) - '0';
+            if (digit < 0 || digit > 9) throw new IllegalArgumentException("expected a " + what + " but found '" + token + "'");
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    // sort the pairs by song; pairs given out of order only happen with "songN:rating" input
+    void sort() {
+        for (int i = 1; i < count; i++) {
+            int s = songs[i], v = values[i], j = i - 1;
+            while (j >= 0 && songs[j] > s) {
+                songs[j + 1] = songs[j];
+                values[j + 1] = values[j];
+                j--;
+            }
+            songs[j + 1] = s;
+            values[j + 1] = v;
+        }
+    }
+}
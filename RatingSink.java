@@ -0,0 +1,9 @@
+/**
+ * Description of this file : callback taking a song (0 based) and a rating, so the stores can hand out the songs
+ * to recommend without boxing them or filling a list.
+ */
+
+// receives one song (0 based) and its rating
+interface RatingSink {
+    void accept(int song, int rating);
+}
@@ -0,0 +1,238 @@
+/**
+ * Description of this file : long running HTTP server answering the requests of the actions file.
+ * The ratings file is loaded once into a RecommendationService, and every request is answered with the lines the
+ * program would print for it:
+ *   GET  /RecommendSongs                  RecommendSongs for the target
+ *   GET  /RecommendSongs?name=NAME        RecommendSongs NAME, "wrong query" for an unknown name
+ *   POST /AddCustomer                     body: one "NAME ratings..." line per customer, as after AddCustomer in
+ *                                         the actions file; answered once every customer is published, or
+ *                                         400 with nobody added if a line breaks the rules of the ratings file
+ *   GET  /PrintCustomerDistanceRatings    the whole table
+ * Each request runs on a virtual thread where the JDK has them (21 and later), on a pool of platform threads
+ * otherwise. RecommendSongs requests for the same customer that arrive while one is being answered, with no change
+ * published since it started, wait for that answer instead of walking the heap again. A request that fails inside
+ * the service is answered 500.
+ *
+ * usage : java RecommendationServer ratings.txt [--port=N] [--host=H] [--max-batch=N] [options of the program]
+ *         (port 0 picks a free one; the port is printed on the first output line)
+ */
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class RecommendationServer {
+
+    private final RecommendationService service;
+    // RecommendSongs being answered, by published version and customer name; the target's name is TARGET
+    private final ConcurrentHashMap<String, CompletableFuture<String>> recommending = new ConcurrentHashMap<>();
+    private static final String TARGET = "\n"; // no customer name holds a line break
+
+    RecommendationServer(RecommendationService service) {
+        this.service = service;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: java RecommendationServer ratings.txt [--port=N] [--host=H] [--max-batch=N] [options]");
+            System.exit(2);
+        }
+        int port = 8080, maxBatch = RecommendationService.DEFAULT_BATCH;
+        String host = "127.0.0.1";
+        List<String> rest = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].startsWith("--port=")) port = Integer.parseInt(args[i].substring("--port=".length()));
+            else if (args[i].startsWith("--host=")) host = args[i].substring("--host=".length());
+            else if (args[i].startsWith("--max-batch=")) maxBatch = Integer.parseInt(args[i].substring("--max-batch=".length()));
+            else rest.add(args[i]);
+        }
+        Options options = Options.parse(rest.toArray(new String[0]), 0);
+        for (String unsupported : new String[]{options.shards == 0 && options.workers == null ? null : "--shards and --workers",
+                options.log == null ? null : "--log", options.batch == 0 ? null : "--batch",
+                options.tableFile == null ? null : "--table-file"}) {
+            if (unsupported != null) throw new IllegalArgumentException(unsupported + " do not work with the server");
+        }
+        if (options.metrics) Metrics.start(options.metricsEvery);
+        RecommendationService service = RecommendationService.load(new File(args[0]), options, maxBatch);
+        HttpServer server = new RecommendationServer(service).start(new InetSocketAddress(host, port));
+        System.out.println("RecommendationServer listening on " + server.getAddress().getPort());
+        System.out.flush();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop(0);
+            service.close();
+        }));
+    }
+
+    // serve the requests on address until the server is stopped
+    HttpServer start(InetSocketAddress address) throws IOException {
+        // headers and body go out in two writes; without TCP_NODELAY the body waits for the client's delayed ack
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) System.setProperty("sun.net.httpserver.nodelay", "true");
+        HttpServer server = HttpServer.create(address, 1024);
+        server.createContext("/RecommendSongs", timed(this::recommendSongs));
+        server.createContext("/AddCustomer", timed(this::addCustomer));
+        server.createContext("/PrintCustomerDistanceRatings", timed(this::printTable));
+        server.createContext("/", timed(exchange -> send(exchange, 404, "wrong query\n")));
+        server.setExecutor(requestExecutor());
+        server.start();
+        return server;
+    }
+
+    // the handler with the time of every request recorded, whatever its status and also when sending it fails
+    private static HttpHandler timed(HttpHandler handler) {
+        return exchange -> {
+            long start = Metrics.now();
+            try {
+                handler.handle(exchange);
+            } finally {
+                Metrics.HTTP.since(start);
+            }
+        };
+    }
+
+    // a virtual thread per request where the JDK has them, found by reflection so the server still builds and
+    // runs on JDK 17; a growing pool of platform threads otherwise
+    static ExecutorService requestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "http");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private void recommendSongs(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("GET")) {
+            send(exchange, 405, "RecommendSongs takes GET\n");
+            return;
+        }
+        String name = parameter(exchange.getRequestURI().getRawQuery(), "name");
+        String answer;
+        try {
+            answer = recommend(name);
+        } catch (RuntimeException e) {
+            send(exchange, 500, "RecommendSongs failed: " + e + "\n");
+            return;
+        }
+        send(exchange, 200, answer + "\n");
+    }
+
+    // RecommendSongs for the target or a named customer, sharing the answer of a lookup already running for it.
+    // only a lookup that started at the version published now is joined: its answer sees every change a client
+    // was already told about, while one that started earlier may not
+    String recommend(String name) {
+        String key = service.version() + " " + (name == null ? TARGET : name); // names hold no blank
+        CompletableFuture<String> mine = new CompletableFuture<>();
+        CompletableFuture<String> running = recommending.putIfAbsent(key, mine);
+        if (running != null) {
+            Metrics.COALESCED.increment();
+            return running.join();
+        }
+        try {
+            String answer = service.recommendSongs(name);
+            mine.complete(answer);
+            return answer;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            recommending.remove(key, mine);
+        }
+    }
+
+    // every line of the body is one customer; the answer echoes each as "AddCustomer <name> <ratings...>" like the
+    // program, with the tokens of the line split on blanks. Every line is checked before any customer is queued, so
+    // a bad line is a 400 that adds nobody.
+    private void addCustomer(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            send(exchange, 405, "AddCustomer takes POST\n");
+            return;
+        }
+        String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        List<String> names = new ArrayList<>();
+        List<RatingRow> rows = new ArrayList<>();
+        StringBuilder answer = new StringBuilder();
+        for (String line : body.split("\r?\n")) {
+            String[] tokens = line.trim().split("\\s+");
+            if (tokens[0].isEmpty()) continue; // blank line
+            RatingRow row = new RatingRow();
+            try {
+                service.checkRow(row.parse(tokens, 1));
+            } catch (IllegalArgumentException e) {
+                send(exchange, 400, "bad ratings in \"" + line.trim() + "\": " + e.getMessage() + "\n");
+                return;
+            }
+            rows.add(row);
+            names.add(tokens[0]);
+            answer.append("AddCustomer ").append(String.join(" ", tokens)).append('\n');
+        }
+        List<CompletableFuture<Boolean>> added = new ArrayList<>();
+        for (int i = 0; i < names.size(); i++) added.add(service.addCustomer(names.get(i), rows.get(i)));
+        try {
+            for (CompletableFuture<Boolean> customer : added) customer.get();
+        } catch (ExecutionException e) {
+            // the lines were checked above with the rules of the store, so this is rare; a rejected row is still the
+            // client's fault, anything else the server's
+            if (e.getCause() instanceof IllegalArgumentException) send(exchange, 400, e.getCause().getMessage() + "\n");
+            else send(exchange, 500, "AddCustomer failed: " + e.getCause() + "\n");
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            send(exchange, 503, "interrupted\n");
+            return;
+        }
+        send(exchange, 200, answer.toString());
+    }
+
+    private void printTable(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("GET")) {
+            send(exchange, 405, "PrintCustomerDistanceRatings takes GET\n");
+            return;
+        }
+        byte[] table;
+        try {
+            table = service.table();
+        } catch (RuntimeException e) {
+            send(exchange, 500, "PrintCustomerDistanceRatings failed: " + e + "\n");
+            return;
+        }
+        send(exchange, 200, table);
+    }
+
+    // decoded value of a query parameter, null if it is not given
+    private static String parameter(String query, String name) {
+        if (query == null) return null;
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0 && pair.substring(0, eq).equals(name)) return URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+        }
+        return null;
+    }
+
+    private static void send(HttpExchange exchange, int status, String text) throws IOException {
+        send(exchange, status, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/**
+ * Description of this file : the recommendation system as a service shared by many threads, with reads that never
+ * wait for the writer. Two copies of the session are kept, one for the readers and one for the writer (a left-right
+ * pair). Readers register with a reader counter, read the copy being served and leave; they copy nothing and answer
+ * RecommendSongs like a --keep-heap run, so they never change the heap. The target's RecommendSongs and the table
+ * take no lock at all. RecommendSongs <name> goes through the copy's NeighbourCache, which is synchronized, so named
+ * readers of one copy wait for each other while one of them computes a missing neighbour list.
+ * Changes are queued and applied by one writer thread, a batch at a time: the batch goes into the copy nobody reads,
+ * that copy is published with one volatile write as the next version, and once the readers still on the old copy
+ * have left, the same batch is replayed into it so both copies are equal again. Every change sees the same ids in
+ * both copies because they get the same changes in the same order. The price is twice the memory of one session.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+// RecommendSongs for any number of reader threads, AddCustomer, UpdateRating and RemoveCustomer through one writer
+class RecommendationService implements Closeable {
+
+    static final int DEFAULT_BATCH = 256; // changes applied and published together at most
+
+    private final Session[] copies; // equal sessions, except while a batch is being applied
+    private final ReadIndicator[] readers = {new ReadIndicator(), new ReadIndicator()};
+    private volatile int current; // copy the readers are sent to
+    private volatile int arrivals; // reader counter new readers register with
+    private volatile long version; // batches published so far
+
+    private final int maxBatch;
+    private final LinkedBlockingQueue<Change> changes = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private volatile boolean closed;
+
+    // two sessions loaded from the same input the same way, the first one is served first
+    RecommendationService(Session first, Session second, int maxBatch) {
+        if (first.store.size() != second.store.size() || first.targetCus != second.targetCus) {
+            throw new IllegalArgumentException("the two copies of the service hold different customers");
+        }
+        this.copies = new Session[]{first, second};
+        this.maxBatch = maxBatch;
+        // each Session registered its own sizes; report the ones of the copy being served instead
+        Metrics.gauge("heap.size", () -> read(session -> session.heap.size()));
+        Metrics.gauge("store.size", () -> read(session -> session.store.size()));
+        writer = new Thread(this::write, "recommendation-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // service over the ratings file, or over the --snapshot file when it exists, loaded once per copy
+    static RecommendationService load(File ratings, Options options, int maxBatch) throws IOException {
+        return new RecommendationService(session(ratings, options), session(ratings, options), maxBatch);
+    }
+
+    private static Session session(File ratings, Options options) throws IOException {
+        Session restored = RecommendationSystem.restore(options, MinHeap::new);
+        return restored != null ? restored : RecommendationSystem.load(ratings, options);
+    }
+
+    // RecommendSongs for the target
+    String recommendSongs() {
+        return recommendSongs(null);
+    }
+
+    // RecommendSongs for the target when name is null, for the customer with that name otherwise, "wrong query"
+    // if nobody has it. The target's answer is lock free; a named answer goes through the neighbour cache of the
+    // copy, which holds its lock while a missing neighbour list is computed.
+    String recommendSongs(String name) {
+        return read(session -> {
+            CustomerStore store = session.store;
+            int target = session.targetCus;
+            int id = name == null ? target : store.idOf(name);
+            if (id == -1) return "wrong query";
+            if (session.topK != null) {
+                return id == target ? session.topK.recommend(session.heap, id) : session.topK.recommend(session.neighbours, id);
+            }
+            if (id == target) return RecommendationSystem.recommendSongs(session.heap, store, target, true);
+            return session.neighbours.recommend(id);
+        });
+    }
+
+    // PrintCustomerDistanceRatings of the published version
+    byte[] table() {
+        return read(session -> {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            new TableWriter(bytes).writeTable(session.store, session.targetCus, session.customerList);
+            return bytes.toByteArray();
+        });
+    }
+
+    // customers in the published version, the target included
+    int customers() {
+        return read(session -> session.customerList.size() + 1);
+    }
+
+    // batches published so far; a change is visible once its future is done
+    long version() {
+        return version;
+    }
+
+    // run a query on the published copy; it must not change the copy
+    <T> T read(Function<Session, T> query) {
+        ReadIndicator indicator = readers[arrivals];
+        indicator.arrive();
+        try {
+            return query.apply(copies[current]);
+        } finally {
+            indicator.depart();
+        }
+    }
+
+    // AddCustomer; completes with true once the customer is published, exceptionally if the ratings do not fit
+    CompletableFuture<Boolean> addCustomer(String name, RatingRow row) {
+        RatingRow copy = new RatingRow(); // the caller may reuse its row
+        for (int i = 0; i < row.count; i++) copy.add(row.songs[i], row.values[i]);
+        copy.width = row.width;
+        copy.positional = row.positional;
+        return submit(new Change(Action.Kind.ADD_CUSTOMER, name, copy, 0, 0));
+    }
+
+    // throw the IllegalArgumentException addCustomer would complete with if the published store rejects the row,
+    // e.g. a song past the dense catalog, so a caller can refuse a request before queueing any of it
+    void checkRow(RatingRow row) {
+        read(session -> {
+            session.store.checkRow(row);
+            return null;
+        });
+    }
+
+    // UpdateRating of a 0 based song; completes with false if nobody has the name, the song is outside the catalog
+    // or the rating outside 0..MAX_RATING
+    CompletableFuture<Boolean> updateRating(String name, int song, int value) {
+        return submit(new Change(Action.Kind.UPDATE_RATING, name, null, song, value));
+    }
+
+    // RemoveCustomer; completes with false if nobody has the name or it is the target's
+    CompletableFuture<Boolean> removeCustomer(String name) {
+        return submit(new Change(Action.Kind.REMOVE_CUSTOMER, name, null, 0, 0));
+    }
+
+    private CompletableFuture<Boolean> submit(Change change) {
+        if (closed) change.done.completeExceptionally(new IllegalStateException("the service is closed"));
+        else changes.add(change);
+        return change.done;
+    }
+
+    // stop the writer once the changes queued so far are published
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        changes.add(Change.STOP);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // writer thread: take whatever is queued, up to maxBatch changes, and publish it as one version
+    private void write() {
+        List<Change> batch = new ArrayList<>();
+        boolean stop = false;
+        while (!stop) {
+            try {
+                batch.add(changes.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            changes.drainTo(batch, maxBatch - 1);
+            stop = batch.remove(Change.STOP);
+            if (!batch.isEmpty()) publish(batch);
+            batch.clear();
+        }
+        for (Change change : changes) { // raced with close
+            change.done.completeExceptionally(new IllegalStateException("the service is closed"));
+        }
+    }
+
+    // apply the batch to the copy nobody reads, serve it, then bring the other copy up to date
+    private void publish(List<Change> batch) {
+        int next = 1 - current;
+        for (Change change : batch) {
+            try {
+                change.result = apply(copies[next], change);
+            } catch (RuntimeException e) {
+                // CustomerStore.add checks a row before it writes any of it and apply checks an UpdateRating with
+                // canSetRating, so a failed change left this copy as it was; it is left out of the other copy too
+                change.error = e;
+            }
+        }
+        copies[next].customerList.flush(); // readers of the table would merge the new customers otherwise
+        current = next;
+        version++;
+        for (Change change : batch) {
+            if (change.error == null) change.done.complete(change.result);
+            else change.done.completeExceptionally(change.error);
+        }
+        waitForReaders();
+        for (Change change : batch) {
+            if (change.error == null) apply(copies[1 - next], change);
+        }
+        copies[1 - next].customerList.flush();
+    }
+
+    // wait until no reader can still be on the copy served before the last switch. readers that registered before
+    // it may be on either copy: new readers are moved to the other counter, which must be empty first, and then
+    // the old counter is waited out. only the writer waits, yielding to the readers it waits for
+    private void waitForReaders() {
+        int old = arrivals;
+        while (!readers[1 - old].isEmpty()) Thread.yield();
+        arrivals = 1 - old;
+        while (!readers[old].isEmpty()) Thread.yield();
+    }
+
+    // the change of runAction, without its output; false for a wrong query
+    private static boolean apply(Session session, Change change) {
+        CustomerStore store = session.store;
+        int target = session.targetCus;
+        switch (change.kind) {
+            case ADD_CUSTOMER: {
+                int id = RecommendationSystem.addCus(change.name, change.row, store, session.customerList, target, session.heap);
+                session.neighbours.customerAdded(id);
+                return true;
+            }
+            case UPDATE_RATING: {
+                int id = store.idOf(change.name);
+                if (id == -1 || !store.canSetRating(change.song, change.value)) return false;
+                RecommendationSystem.updateRating(id, change.song, change.value, store, target, session.heap);
+                session.neighbours.clear();
+                return true;
+            }
+            default: { // REMOVE_CUSTOMER
+                int id = store.idOf(change.name);
+                if (id == -1 || id == target) return false;
+                RecommendationSystem.removeCus(id, store, session.customerList, session.heap);
+                session.neighbours.clear();
+                return true;
+            }
+        }
+    }
+
+    // one queued change and the future its caller waits on
+    private static class Change {
+        static final Change STOP = new Change(null, null, null, 0, 0); // the writer ends here
+
+        final Action.Kind kind;
+        final String name;
+        final RatingRow row; // ratings of AddCustomer
+        final int song, value; // 0 based song and rating of UpdateRating
+        final CompletableFuture<Boolean> done = new CompletableFuture<>();
+        boolean result; // answer of the first copy, true unless a wrong query
+        RuntimeException error; // ratings that did not fit the first copy
+
+        Change(Action.Kind kind, String name, RatingRow row, int song, int value) {
+            this.kind = kind;
+            this.name = name;
+            this.row = row;
+            this.song = song;
+            this.value = value;
+        }
+    }
+
+    // readers that registered and left, counted on striped cells so readers on many cores do not contend.
+    // the departures are read before the arrivals: a reader arriving during the check can only make it fail
+    private static class ReadIndicator {
+        private final LongAdder arrived = new LongAdder();
+        private final LongAdder departed = new LongAdder();
+
+        void arrive() { arrived.increment(); }
+        void depart() { departed.increment(); }
+
+        boolean isEmpty() {
+            long left = departed.sum();
+            return arrived.sum() == left;
+        }
+    }
+}
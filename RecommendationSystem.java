@@ -5,285 +5,440 @@
  *
 */
 
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.Scanner;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
-// CusDistance object storing customer's distance, name, and ratings
-class CusDistance implements Comparable<CusDistance> {
-
-    private double distance;
-    private String name;
-    private int[] ratings;
-
-    // constructor
-    public CusDistance(double distance, String name, int[] ratings) {
-        this.distance = distance;
-        this.name = name;
-        this.ratings = ratings;
+public class RecommendationSystem {
+    public static void main(final String[] args) throws IOException {
+        // store keeps every customer, customerList keeps the ids of all customers but the target
+        final long start = System.nanoTime();
+        final Options options = Options.parse(args, 2);
+        if (options.metrics) Metrics.start(options.metricsEvery);
+        if (options.shards > 0 || options.workers != null) { // customers split over shards, answered by scatter-gather
+            ShardCoordinator.run(new File(args[0]), new File(args[1]), options, false);
+            return;
+        }
+        Session restored = restore(options, MinHeap::new); // --snapshot: start where the last run stopped
+        if (restored != null) {
+            runActions(new File(args[1]), restored);
+            return;
+        }
+        Session session = load(new File(args[0]), options);
+        if (options.parallel) logStartup(start, session.store, session.heap);
+        runActions(new File(args[1]), session);
     }
 
-    // getter method
-    public String name() {
-        return this.name;
+    // session over a freshly loaded ratings file: the store, every customer's distance from the target, the heap
+    // and the name ordered customer list
+    static Session load(File ratings, Options options) throws IOException {
+        final CustomerStore store = CustomerStore.create(options.sparse);
+        if (options.index) store.enableSongIndex(); // song -> customers index kept up to date while loading
+        if (options.annTables > 0) store.enableAnnIndex(options.annTables, options.annRows);
+        if (options.scalar) store.useScalarKernel();
+        final IdList loaded = new IdList();
+        final int targetCus = loadRatings(ratings, store, loaded);
+        loaded.sort(store::compare); // sort the customer list in alphabetical order (all distances == 0)
+        final MinHeap heap = new MinHeap(store); // initialize priority queue
+        long score = Metrics.now();
+        scoreCustomers(store, targetCus, options.pool()); // set the distance of every customer in the store.
+        Metrics.SCORE.since(score);
+        // add customer into a heap if the distance can be calculated.
+        long build = Metrics.now();
+        for (int i = 0; i < loaded.size(); i++) {
+            int id = loaded.get(i);
+            if (store.distance(id) == -1) continue; // no add in Heap if distance is not measurable
+            heap.insert(id); // add into Heap if distance is measurable
+        }
+        Metrics.HEAP_BUILD.since(build);
+        Metrics.MEASURABLE.add(heap.size());
+        Metrics.UNMEASURABLE.add(loaded.size() - heap.size());
+        return new Session(options, store, new NameOrderedList(store, loaded), targetCus, heap);
     }
-    public double distance() {
-        return this.distance;
+
+    // session restored from the --snapshot file, or null if there is none yet; the ratings file is not read then.
+    // the store, distances, heap order and customer list come back as they were, and the actions the snapshot
+    // already answered are skipped, so the actions file goes on at the next one.
+    static Session restore(Options options, Function<CustomerStore, MinHeap> newHeap) throws IOException {
+        if (options.snapshot == null || !new File(options.snapshot).exists()) return null;
+        Snapshot snapshot = Snapshot.read(new File(options.snapshot));
+        CustomerStore store = snapshot.store;
+        if (options.index) store.enableSongIndex();
+        if (options.annTables > 0) store.enableAnnIndex(options.annTables, options.annRows);
+        if (options.scalar) store.useScalarKernel();
+        MinHeap heap = newHeap.apply(store);
+        heap.restore(snapshot.heap);
+        Session session = new Session(options, store, new NameOrderedList(store, snapshot.customerList), snapshot.targetCus, heap);
+        session.actionsDone = snapshot.actionsDone;
+        return session;
     }
-    public int[] ratings(){ return this.ratings; }
-    // setter method
-    public void setDistance(double distance) { this.distance = distance; }
 
-    // enable cusDistance objects to be sorted based on the distance and name if distances are the same.
-    @Override
-    public int compareTo(CusDistance second) {
-        if (this.distance() < second.distance()) { // -1 if this object distance is smaller than second one
-            return -1;
-        } else if (this.distance() == second.distance()) { // compare the name if distances are the same
-            return this.name().compareTo(second.name());
-        } else return 1; // return positive num if this distance is larger than second one
+    // read the ratings file into the store and return the target customer's id
+    static int loadRatings(File file, CustomerStore store, IdList customerList) throws IOException {
+        long load = Metrics.now();
+        try (LineReader reader = new LineReader(file)) { // read ratings file
+            if (!reader.nextLine()) throw reader.error("missing the target customer's name");
+            final String targetName = reader.line(); // target customer's name at the first line
+            int targetCus = -1;
+            RatingRow row = new RatingRow(); // current customer's ratings, copied into the store
+            while (reader.nextLine()) {
+                if (!reader.nextToken()) continue; // skip blank lines
+                long parse = Metrics.now();
+                String name = reader.token();
+                reader.readRatings(row);
+                int current;
+                try {
+                    current = store.add(name, row); // add the current customer into the store
+                } catch (IllegalArgumentException e) {
+                    throw reader.error(e.getMessage());
+                }
+                Metrics.PARSE.since(parse);
+                if (name.equals(targetName)) { // store into the targetCus if the target
+                    targetCus = current;
+                } else {
+                    customerList.add(current); // store into the list if not the target
+                }
+            }
+            if (targetCus == -1) throw new IllegalArgumentException(file.getName() + ": no ratings for the target " + targetName);
+            Metrics.LOAD.since(load);
+            Metrics.CUSTOMERS_LOADED.add(store.size());
+            return targetCus;
+        }
     }
-}
 
-// priority queue implementation
-class MinHeap {
+    // calculate the distance from the target of every other customer in the store, a block of consecutive ids
+    // at a time, on the pool when one is given; every task writes the distances of its own block only
+    static void scoreCustomers(CustomerStore store, int targetCus, ForkJoinPool pool) {
+        SongIndex index = store.songIndex();
+        if (index != null) { // only customers sharing a rated song with the target are compared
+            index.scoreAll(targetCus);
+            return;
+        }
+        int size = store.size();
+        int blocks = (size + SCORE_BLOCK - 1) / SCORE_BLOCK;
+        if (pool == null) {
+            for (int b = 0; b < blocks; b++) {
+                scoreRange(store, targetCus, b * SCORE_BLOCK, Math.min(size, (b + 1) * SCORE_BLOCK));
+            }
+            return;
+        }
+        pool.submit(() -> IntStream.range(0, blocks).parallel()
+                .forEach(b -> scoreRange(store, targetCus, b * SCORE_BLOCK, Math.min(size, (b + 1) * SCORE_BLOCK)))).join();
+    }
 
-    ArrayList<CusDistance> list; // array based min heap
+    static final int SCORE_BLOCK = 1024; // customers scored by one calculateRange call
 
-    public MinHeap() {
-        list = new ArrayList<>();
-    } // constructor initializing heap
+    // set the distance from the target of the customers from..to-1, except the target's own
+    static void scoreRange(CustomerStore store, int targetCus, int from, int to) {
+        double[] distances = new double[to - from];
+        store.calculateRange(targetCus, from, to, distances);
+        for (int id = from; id < to; id++) {
+            if (id != targetCus && !store.isRemoved(id)) store.setDistance(id, distances[id - from]);
+        }
+    }
 
-    // method for swapping two elements in an array
-    protected void swap(int i, int j){
-        CusDistance temp = list.get(i);
-        list.set(i, list.get(j));
-        list.set(j, temp);
+    // customers with a measurable distance in customerList order, filtered on the pool when one is given
+    static int[] measurable(CustomerStore store, IdList customerList, ForkJoinPool pool) {
+        IntStream ids = IntStream.range(0, customerList.size()).map(customerList::get);
+        if (pool == null) return ids.filter(id -> store.distance(id) != -1).toArray();
+        return pool.submit(() -> ids.parallel().filter(id -> store.distance(id) != -1).toArray()).join();
     }
 
-    protected int parent(int n) {
-        return (n - 1) / 2;
-    } // element's parent index
-    protected int left(int n) {
-        return n*2+1;
-    } // element's left child index
-    protected int right(int n){
-        return n*2+2;
-    } // element's right child index
-    protected boolean hasLeft(int n) { return left(n) < list.size(); } // check if it has left child
-    protected boolean hasRight(int n) {
-        return right(n) < list.size();
-    } // check if it has right child
+    // report how long loading, scoring and building the heap took
+    static void logStartup(long start, CustomerStore store, MinHeap heap) {
+        System.err.printf("startup: %d customers, %d in heap, %.1f ms%n",
+                store.size(), heap.size(), (System.nanoTime() - start) / 1e6);
+    }
 
-    // upHeap the element in the position n
-    protected void upHeap(int n) {
-        // 0 is the root node index, so do upHeap before reaching to the root.
-        while (n > 0) {
-            int p = parent(n);
-            // do swap if current object is smaller than a parent object
-            if (list.get(n).compareTo(list.get(p)) < 0) {
-                swap(n, p);
-                n = p;
-            } else break; // stop if current is smaller than parent
+    // read the actions file and answer every request in order
+    static void runActions(File file, Session session) throws IOException {
+        if (session.options.log != null) session.log = ActionLog.open(new File(session.options.log), session); // replay
+        if (session.options.tableFile != null) session.tableFile = TableWriter.toFile(new File(session.options.tableFile));
+        try {
+            if (session.options.batch > 0) { // windows of actions on all cores, answers through one buffered stream
+                session.out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16));
+                new BatchProcessor(session, session.options.pool(), session.options.batch).run(file);
+            } else {
+                try (ActionReader reader = new ActionReader(file)) { // read actions file
+                    reader.skip(session.actionsDone); // answered before the snapshot the session started from
+                    Action action = new Action();
+                    while (reader.next(action)) {
+                        runAction(action, session);
+                        answered(session, 1);
+                    }
+                }
+            }
+        } finally {
+            if (session.tableFile != null) session.tableFile.close();
+        }
+        if (session.log != null) session.log.sync(session.actionsDone);
+        if (session.options.snapshot != null) { // snapshot at shutdown for the next start
+            Snapshot.write(new File(session.options.snapshot), session, session.actionsDone);
+            if (session.log != null) session.log.truncate(); // everything in it is in the snapshot now
         }
+        if (session.log != null) session.log.close();
     }
 
-    // downHeap the object in a position n
-    protected void downHeap(int n) {
-        // do down heap if it has child node.
-        while (hasLeft(n)) {
-            int leftIdx = left(n);
-            int minIdx = left(n); // store the minimum's index among left and right.
-            // update minIdx if it has right child and this is smaller than left child
-            if (hasRight(n)){
-                int rightIdx = right(n);
-                if (list.get(rightIdx).compareTo(list.get(leftIdx)) < 0){
-                    minIdx = rightIdx;
-                }
+    // count n answered requests; with --log the changes are forced to disk every --log-sync changes, and a
+    // snapshot is written every --checkpoint-every changes when there is a --snapshot file, emptying the log
+    static void answered(Session session, int n) {
+        session.actionsDone += n;
+        ActionLog log = session.log;
+        if (log == null) return;
+        try {
+            if (log.pending() >= session.options.logSync) log.sync(session.actionsDone);
+            if (session.options.snapshot != null && log.sinceCheckpoint() >= session.options.checkpointEvery) {
+                log.sync(session.actionsDone);
+                Snapshot.write(new File(session.options.snapshot), session, session.actionsDone);
+                log.truncate();
             }
-            // swap if child is smaller than current or else break
-            if (list.get(minIdx).compareTo(list.get(n)) < 0) {
-                swap(minIdx, n);
-                n = minIdx;
-            } else break;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
     }
 
-    // insert an object into a minHeap and place it into the right place.
-    public void insert(CusDistance cus) {
-        list.add(cus);
-        upHeap(list.size()-1);
+    // answer one request
+    static void runAction(Action action, Session session) {
+        runAction(action, session, session.out);
     }
 
-    // remove the min value from the heap
-    public CusDistance removeMin(){
-        if (list.isEmpty()) return null;
-        // just remove and return the object if heap has only one object
-        if (list.size() == 1) {
-            return list.remove(0);
+    // answer one request, writing the output to out
+    static void runAction(Action action, Session session, PrintStream out) {
+        CustomerStore store = session.store;
+        int targetCus = session.targetCus;
+        switch(action.kind) {
+            case ADD_CUSTOMER: // AddCustomer request
+                out.println(action.line); // output the request itself
+                try { // update the customerList and Heap
+                    int id = addCus(action.name, action.row, store, session.customerList, targetCus, session.heap);
+                    session.neighbours.customerAdded(id); // keep the cached neighbour lists right
+                    if (session.log != null) session.log.addCustomer(session.actionsDone + 1, action.name, action.row);
+                } catch (IllegalArgumentException e) {
+                    throw action.error(e.getMessage());
+                }
+                break;
+            case RECOMMEND_SONGS: // RecommendSongs request
+                if (session.topK != null) { // --top-k: scores over the nearest customers, the heap is kept
+                    int id = action.name == null ? targetCus : store.idOf(action.name);
+                    if (id == -1) out.println("wrong query");
+                    else if (id == targetCus) out.println(session.topK.recommend(session.heap, id));
+                    else out.println(session.topK.recommend(session.neighbours, id));
+                } else if (action.name == null) {
+                    int before = session.heap.size();
+                    out.println(recommendSongs(session.heap, store, targetCus, session.options.keepHeap));
+                    // customers removed from the heap are a change too
+                    if (session.log != null && session.heap.size() != before) session.log.recommendSongs(session.actionsDone + 1);
+                } else { // RecommendSongs <name> for any customer
+                    String answer = recommend(session.neighbours, store, action.name);
+                    out.println(answer == null ? "wrong query" : answer);
+                }
+                break;
+            case PRINT_CUSTOMER_DISTANCE_RATINGS: // PrintCustomer request
+                // the target customer's information first, then the customerList
+                session.table(out).writeTable(store, targetCus, session.customerList);
+                break;
+            case UPDATE_RATING: { // UpdateRating request
+                int id = store.idOf(action.name);
+                if (id == -1 || !store.canSetRating(action.song, action.value)) { // unknown name, song or rating
+                    out.println("wrong query");
+                    break;
+                }
+                out.println(action.line); // output the request itself
+                try {
+                    updateRating(id, action.song, action.value, store, targetCus, session.heap);
+                } catch (IllegalArgumentException e) {
+                    throw action.error(e.getMessage());
+                }
+                session.neighbours.clear(); // any cached neighbour list may have changed
+                if (session.log != null) session.log.updateRating(session.actionsDone + 1, id, action.song, action.value);
+                break;
+            }
+            case REMOVE_CUSTOMER: { // RemoveCustomer request; the target cannot be removed
+                int id = store.idOf(action.name);
+                if (id == -1 || id == targetCus) {
+                    out.println("wrong query");
+                    break;
+                }
+                out.println(action.line); // output the request itself
+                removeCus(id, store, session.customerList, session.heap);
+                session.neighbours.clear();
+                if (session.log != null) session.log.removeCustomer(session.actionsDone + 1, id);
+                break;
+            }
+            case SAVE_SNAPSHOT: // SaveSnapshot request: write the --snapshot file now, counting this request as answered
+                if (session.options.snapshot == null) {
+                    out.println("wrong query");
+                    break;
+                }
+                try {
+                    Snapshot.write(new File(session.options.snapshot), session, session.actionsDone + 1);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                break;
+            default:
+                out.println("wrong query");
         }
-        // update the minHeap after get the min object
-        CusDistance temp = list.get(0);
-        list.set(0, list.remove(list.size()-1));
-        downHeap(0);
-        return temp;
     }
 
-    // get the min distance value
-    public CusDistance getMin(){
-        if (list == null) return null;
-        return list.get(0);
+    // calculate the distance between the target and another customer based on their ratings
+    public static double calculate(CustomerStore store, int target, int other){
+        if (!Metrics.enabled) return store.calculate(target, other); // -1 if there is no common rated song
+        long start = System.nanoTime();
+        double distance = store.calculate(target, other);
+        Metrics.CALCULATE.since(start);
+        (distance == -1 ? Metrics.UNMEASURABLE : Metrics.MEASURABLE).increment();
+        return distance;
     }
 
-    // check if minHeap is empty
-    public boolean isEmpty(){
-        return list.size()==0;
+    // method for add customer request
+    public static void addCus(String[] input, CustomerStore store, NameOrderedList list, int target, MinHeap heap) {
+       addCus(input[1], new RatingRow().parse(input, 2), store, list, target, heap);
     }
-}
 
-public class RecommendationSystem {
-    public static void main(final String[] args) throws FileNotFoundException {
-        File file = new File(args[0]); // get ratings file
-        Scanner sc = new Scanner(file); // read ratings file
-        final String targetName = sc.nextLine(); // target customer's name at the first line
-        // CustomerList stores CusDistance object and targetCus stores the target Customer object
-        final ArrayList<CusDistance> customerList = new ArrayList<>();
-        CusDistance targetCus = null;
-        while (sc.hasNext()){
-            int[] arr = new int[10]; // current customer's ratings
-            String[] temp = sc.nextLine().split(" "); // store the input
-            // update the ratings array
-            for (int i = 0; i < 10; i++) {
-                arr[i] = Integer.parseInt(temp[i+1]);
-            }
-            CusDistance current = new CusDistance(0, temp[0], arr); // create current CusDistance object
-            if (temp[0].equals(targetName)) { // store into the targetCus if the target
-                targetCus = current;
-            } else {
-                customerList.add(current); // store into the list if not the target
-            }
-        }
-        Collections.sort(customerList); // sort the customer list in alphabetical order (all distances == 0)
-        final MinHeap heap = new MinHeap(); // initialize priority queue
-        // add CusDistance object into a heap if the distance can be calculated.
-        for (int i = 0; i < customerList.size(); i++) {
-            double distance = calculate(targetCus.ratings(), customerList.get(i).ratings()); // calculate distance
-            customerList.get(i).setDistance(distance); // set the distance of CusDistance object in the customerList.
-            if (distance == -1) continue; // no add in Heap if distance is not measurable
-            heap.insert(customerList.get(i)); // add into Heap if distance is measurable
+    // add a customer whose ratings are already parsed and return its id
+    public static int addCus(String name, RatingRow row, CustomerStore store, NameOrderedList list, int target, MinHeap heap) {
+       long start = Metrics.now();
+       int id = store.add(name, row); // add the new customer and the ratings into the store
+       double distance = calculate(store, target, id); //calculate the distance from target customer
+       store.setDistance(id, distance);
+       list.add(id); // add to customerList, which keeps it in name order, not distance order
+       if (distance != -1) heap.insert(id); // add to heap if the distance can be calculated
+       Metrics.ADD_CUSTOMER.since(start);
+       return id;
+    }
+
+    // change one rating of a customer, 0 to drop it. another customer only gets a new distance and moves in the
+    // heap; a change by the target re-scores the customers who rated that song, the only distances it can change
+    public static void updateRating(int id, int song, int value, CustomerStore store, int target, MinHeap heap) {
+        store.setRating(id, song, value);
+        if (id != target) {
+            rescore(store, target, id, heap);
+            return;
         }
-        file = new File(args[1]); // get actions file
-        sc = new Scanner(file); // read actions file
-        while (sc.hasNext()){
-            String[] input = sc.nextLine().split(" "); // store the input into an array
-            switch(input[0]) {
-                case "AddCustomer": // AddCustomer request
-                    System.out.println(String.join(" ", input)); // output the request itself
-                    addCus(input, customerList, targetCus, heap); // update the customerList and Heap
-                    break;
-                case "RecommendSongs": // RecommendSongs request
-                    recommend(heap, targetCus);
-                    break;
-                case "PrintCustomerDistanceRatings": // PrintCustomer request
-                    System.out.println("PrintCustomerDistanceRatings");
-                    // printing the target customer's information first
-                    System.out.printf("%-6s", " "); // white space for distance
-                    System.out.printf("%-11s", targetCus.name()); // left aligned name in 11 space
-                    for (int i = 0; i < 10; i++) { // printing the ratings information
-                        System.out.print(targetCus.ratings()[i] + " ");
-                    }
-                    System.out.println();
-                    // print the customerList
-                    print(customerList);
-                    break;
-                default:
-                    System.out.println("wrong query");
+        SongIndex index = store.songIndex();
+        if (index != null) {
+            index.forEachRater(song, other -> rescore(store, target, other, heap));
+        } else if (song < store.songCount()) {
+            for (int other = 0, size = store.size(); other < size; other++) {
+                if (other != target && store.rating(other, song) != 0) rescore(store, target, other, heap);
             }
         }
     }
 
-    // calculate the distance based on two ratings
-    public static double calculate(int[] target, int[] other){
-        double cnt = 0;
-        double ratingSum = 0;
-        for (int i = 0; i < 10; i++) {
-            // only consider the song both target and other rated
-            if (target[i] != 0 && other[i] != 0) {
-                cnt += 1; // increment count
-                ratingSum += Math.abs(target[i]-other[i]); // add the difference into ratingSum
-            }
+    // new distance of a customer: it moves in the heap, joins it or leaves it when no longer measurable.
+    // a customer RecommendSongs took out joins again, since its ratings may give it a song to recommend now
+    static void rescore(CustomerStore store, int target, int id, MinHeap heap) {
+        double distance = calculate(store, target, id);
+        store.setDistance(id, distance);
+        if (distance == -1) {
+            if (heap.contains(id)) heap.remove(id);
+        } else if (heap.contains(id)) {
+            heap.update(id);
+        } else {
+            heap.insert(id);
         }
-        if (cnt == 0) return -1; // return -1 if distance cannot be calculated (no common rated song)
-        double distance = 1/cnt + ratingSum/cnt;
-        return distance; // return distance
     }
 
-    // method for add customer request
-    public static void addCus(String[] input, ArrayList<CusDistance> list, CusDistance target, MinHeap heap) {
-       String name = input[1]; // new customer's name
-       int[] rating = new int[10]; // new customer's ratings
-       for (int i = 0; i < 10; i++) { // update the ratings info
-           rating[i] = Integer.parseInt(input[i+2]);
-       }
-       double distance = calculate(target.ratings(), rating); //calculate the distance from target customer
-       CusDistance temp = new CusDistance(distance, name, rating); // create new CusDistance object
-       list.add(temp); // add to customerList and sort the list again
-       Collections.sort(list, new Comparator<CusDistance>() {
-           @Override // comparator to sort the customerList based on the name, not distance
-           public int compare(CusDistance o1, CusDistance o2) {
-               return o1.name().compareTo(o2.name());
-           }
-       });
-       if (distance != -1) heap.insert(temp); // add to heap if the distance can be calculated
+    // take a customer out of the heap, the customer list and the store
+    public static void removeCus(int id, CustomerStore store, NameOrderedList list, MinHeap heap) {
+        if (heap.contains(id)) heap.remove(id);
+        list.remove(id);
+        store.remove(id);
     }
 
     // print output for recommend song request; use heap and target to find the song
-    public static void recommend(MinHeap heap, CusDistance target) {
-        boolean find = false;
-        int[] song = new int[10]; // song array to see which song is recommended
-        CusDistance temp = null;
-        while (!find && !heap.isEmpty()) {
-            temp = heap.getMin();
-            for (int i = 0; i < 10; i++) {
-                if (target.ratings()[i] == 0 && temp.ratings()[i] >= 4) {
-                    find = true;
-                    song[i] = 1;
+    public static void recommend(MinHeap heap, CustomerStore store, int target) {
+        recommend(heap, store, target, false);
+    }
+
+    // with keepHeap the customers without a song to recommend stay in the heap; the answer is the same because
+    // a removed customer could never be recommended, but later queries still see the whole heap
+    public static void recommend(MinHeap heap, CustomerStore store, int target, boolean keepHeap) {
+        System.out.println(recommendSongs(heap, store, target, keepHeap));
+    }
+
+    // RecommendSongs line for the target; only changes the heap without keepHeap
+    static String recommendSongs(MinHeap heap, CustomerStore store, int target, boolean keepHeap) {
+        long start = Metrics.now();
+        if (keepHeap) {
+            String answer = heap.cachedAnswer(target);
+            if (answer == null) {
+                IntPredicate match = id -> store.hasLikedUnrated(target, id);
+                if (Metrics.enabled) { // count the customers looked at
+                    int[] examined = new int[1];
+                    answer = answer(store, target, heap.findFirst(id -> {
+                        examined[0]++;
+                        return match.test(id);
+                    }));
+                    Metrics.CANDIDATES.record(examined[0]);
+                } else {
+                    answer = answer(store, target, heap.findFirst(match));
                 }
+                heap.cacheAnswer(target, answer);
             }
+            recommended(start, answer);
+            return answer;
+        }
+        boolean find = false; // closest customer rated >= 4 a song target did not rate
+        int temp = -1;
+        int examined = 0;
+        while (!find && !heap.isEmpty()) {
+            temp = heap.getMin();
+            examined++;
+            find = store.hasLikedUnrated(target, temp);
             if (!find) heap.removeMin();
         }
+        Metrics.CANDIDATES.record(examined);
+        String answer = answer(store, target, find ? temp : -1);
+        recommended(start, answer);
+        return answer;
+    }
+
+    // latency of a RecommendSongs answer, and whether it was none
+    private static void recommended(long start, String answer) {
+        if (!Metrics.enabled) return;
+        Metrics.RECOMMEND.since(start);
+        if (answer.endsWith(" none")) Metrics.RECOMMEND_NONE.increment();
+    }
+
+    // RecommendSongs line for any customer by name, using its nearest neighbours; null if nobody has the name
+    public static String recommend(NeighbourCache neighbours, CustomerStore store, String name) {
+        long start = Metrics.now();
+        int target = store.idOf(name);
+        String answer = target == -1 ? null : neighbours.recommend(target);
+        Metrics.RECOMMEND_NAMED.since(start);
+        return answer;
+    }
+
+    // RecommendSongs line for the closest customer with a song to recommend, or -1 if there is none
+    static String answer(CustomerStore store, int target, int closest) {
         StringBuilder sb = new StringBuilder("RecommendSongs ");
-        if (!find) sb.append("none"); // no recommend song
-        else { // yes recommend song
-            sb.append(temp.name() + " ");
-            for (int i = 1; i < 11; i++) { // print the song number and closest customer's rating
-                if (song[i-1] == 1) {
-                    sb.append("song" + i + " ");
-                    sb.append(temp.ratings()[i-1] + " ");
-                }
-            }
+        if (closest == -1) sb.append("none"); // no recommend song
+        else { // yes recommend song: the song number and closest customer's rating
+            sb.append(store.name(closest)).append(' ');
+            store.appendLikedUnrated(target, closest, sb);
         }
-        System.out.println(sb);
+        return sb.toString();
     }
 
     // print the customerList table
-    public static void print(ArrayList<CusDistance> list) {
-        // follow the format and spacing using formatter
-        for (int i = 0; i < list.size(); i++) {
-            CusDistance temp = list.get(i);
-            if (temp.distance() == -1) { // ----- when distance cannot be calculated
-                System.out.printf("%-6s", "-----");
-            } else { // left aligned distance with three decimal places in 6 spaces
-                System.out.printf("%-6.3f", temp.distance());
-            }
-            System.out.printf("%-11s", temp.name()); // left aligned name with 11 space
-            for (int j = 0; j < 10; j++) { // print the ratings information
-                System.out.print(temp.ratings()[j] + " ");
-            }
-            System.out.println();
-        }
+    public static void print(CustomerStore store, NameOrderedList list) {
+        print(store, list, System.out);
+    }
+
+    // print the customerList table to out
+    static void print(CustomerStore store, NameOrderedList list, PrintStream out) {
+        TableWriter table = new TableWriter(out); // same spacing as the "%-6.3f" and "%-11s" formats, without a formatter
+        list.forEach(id -> table.writeCustomer(store, id));
+        table.flush();
     }
 }
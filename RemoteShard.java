@@ -0,0 +1,51 @@
+/**
+ * Description of this file : shard served by a ShardWorker process over a socket, for --workers=host:port,...
+ * Requests are framed as int length | request and answers as int length | answer.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+
+// shard served by a ShardWorker process; frames are int length | request, answers int length | answer
+class RemoteShard implements Shard {
+
+    private final Socket socket;
+    private final DataOutputStream out;
+    private final DataInputStream in;
+
+    RemoteShard(String host, int port) throws IOException {
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+    }
+
+    @Override
+    public void tell(byte[] request) throws IOException {
+        out.writeInt(request.length);
+        out.write(request);
+    }
+
+    @Override
+    public void ask(byte[] request) throws IOException {
+        tell(request);
+        out.flush();
+    }
+
+    @Override
+    public DataInputStream receive() throws IOException {
+        byte[] answer = new byte[in.readInt()];
+        in.readFully(answer);
+        return new DataInputStream(new ByteArrayInputStream(answer));
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
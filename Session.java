@@ -0,0 +1,47 @@
+/**
+ * Description of this file : state one run of RecommendationSystem or RecommendationSystemEnhanced works on
+ * once the ratings file is loaded, handed to the actions loop.
+ */
+
+import java.io.PrintStream;
+
+// loaded customers, the target of the ratings file, its heap and the neighbour cache for other customers
+class Session {
+
+    final Options options;
+    final CustomerStore store;
+    final NameOrderedList customerList; // every customer but the target, in name order
+    final int targetCus;
+    final MinHeap heap; // customers with a measurable distance from the target
+    final NeighbourCache neighbours; // nearest customers of anybody asked for by name
+    final TopKRecommender topK; // RecommendSongs over the K nearest customers with --top-k, null otherwise
+    PrintStream out = System.out; // where the answers go
+    long actionsDone; // actions of the actions file answered so far, counting the ones a snapshot already holds
+    ActionLog log; // change log with --log, null otherwise
+    TableWriter tableFile; // where PrintCustomerDistanceRatings tables go with --table-file, null for out
+    private TableWriter table; // writer over out, reused from table to table
+    private PrintStream tableOut; // the stream table writes to
+
+    Session(Options options, CustomerStore store, NameOrderedList customerList, int targetCus, MinHeap heap) {
+        this.options = options;
+        this.store = store;
+        this.customerList = customerList;
+        this.targetCus = targetCus;
+        this.heap = heap;
+        this.neighbours = new NeighbourCache(store, options.neighbours, options.cacheBytes);
+        this.topK = options.topK > 0 ? new TopKRecommender(store, options.topK, options.topN) : null;
+        Metrics.gauge("heap.size", heap::size);
+        Metrics.gauge("store.size", store::size);
+    }
+
+    // writer for a PrintCustomerDistanceRatings table answered to out; private streams get a writer of their own
+    TableWriter table(PrintStream out) {
+        if (tableFile != null) return tableFile;
+        if (out != this.out) return new TableWriter(out);
+        if (table == null || tableOut != out) {
+            table = new TableWriter(out);
+            tableOut = out;
+        }
+        return table;
+    }
+}
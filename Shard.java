@@ -0,0 +1,23 @@
+/**
+ * Description of this file : one hash partition of the customers for --shards and --workers.
+ * A shard owns the customers whose names hash to it, in a store, heap and customer list of its own, plus a copy
+ * of the target's ratings, so it can score and order its customers exactly like the single store does.
+ * The coordinator talks to every shard with the same small binary requests, whether the shard runs on its own
+ * thread in this process (LocalShard) or in another process behind a socket (RemoteShard and ShardWorker).
+ *
+ * request : byte kind | fields written with DataOutputStream; strings are int length | UTF-8 bytes
+ */
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+// one partition of the customers; asks are answered in the order they were sent
+interface Shard extends Closeable {
+    // send a request without an answer; it may wait in a buffer until the next ask
+    void tell(byte[] request) throws IOException;
+    // send a request whose answer is read by receive
+    void ask(byte[] request) throws IOException;
+    // answer of the oldest ask not received yet
+    DataInputStream receive() throws IOException;
+}
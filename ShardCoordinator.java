@@ -0,0 +1,309 @@
+/**
+ * Description of this file : the actions of RecommendationSystem over customers split into hash partitions.
+ * With --shards=N every customer goes to shard hash(name) mod N, each shard on its own thread of this process;
+ * with --workers=host:port,... the shards are ShardWorker processes instead. The target's ratings go to every shard.
+ * RecommendSongs is sent to every shard at once, each shard answers with its closest customer that has a song to
+ * recommend, and the closest of those wins by distance, then name like the single heap. Customers with the same
+ * name share a shard in the order they were added, so within a shard the older one wins a tie on name and
+ * distance, as in the single heap, and the name order between shards never ties. PrintCustomerDistanceRatings
+ * merges the shards' lines by name. The output is byte for byte the one of the single process.
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+
+// routes every request to the shard owning the customer's name, or to all of them
+class ShardCoordinator {
+
+    private final Shard[] shards;
+    private final Options options;
+    private int songs; // catalog size of the single store: the dense width, or the widest row so far with --sparse
+    private final PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16));
+
+    private ShardCoordinator(Shard[] shards, Options options) {
+        this.shards = shards;
+        this.options = options;
+    }
+
+    // load the ratings file into the shards and answer the actions file
+    static void run(File ratings, File actions, Options options, boolean enhanced) throws IOException {
+        for (String unsupported : new String[]{options.snapshot == null ? null : "--snapshot", options.log == null ? null : "--log",
+                options.batch == 0 ? null : "--batch", options.topK == 0 ? null : "--top-k",
+                options.tableFile == null ? null : "--table-file"}) {
+            if (unsupported != null) throw new IllegalArgumentException(unsupported + " does not work with --shards or --workers");
+        }
+        Shard[] shards = connect(options);
+        ShardCoordinator coordinator = new ShardCoordinator(shards, options);
+        try {
+            coordinator.load(ratings, enhanced);
+            coordinator.answer(actions);
+        } finally {
+            coordinator.out.flush();
+            for (Shard shard : shards) shard.close();
+        }
+    }
+
+    // threads of this process for --shards=N, connections to the ShardWorker processes for --workers
+    private static Shard[] connect(Options options) throws IOException {
+        if (options.workers == null) {
+            Shard[] shards = new Shard[options.shards];
+            for (int i = 0; i < shards.length; i++) shards[i] = new LocalShard(i);
+            return shards;
+        }
+        Shard[] shards = new Shard[options.workers.length];
+        for (int i = 0; i < shards.length; i++) {
+            String worker = options.workers[i];
+            int colon = worker.lastIndexOf(':');
+            if (colon < 0) throw new IllegalArgumentException("--workers needs host:port pairs, e.g. --workers=localhost:7001,localhost:7002");
+            shards[i] = new RemoteShard(worker.substring(0, colon), Integer.parseInt(worker.substring(colon + 1)));
+        }
+        return shards;
+    }
+
+    // shard owning every customer with this name
+    private int shardOf(String name) {
+        return Math.floorMod(name.hashCode(), shards.length);
+    }
+
+    // read the ratings file as loadRatings does, sending every row to its shard and the target's to all of them
+    private void load(File file, boolean enhanced) throws IOException {
+        try (LineReader reader = new LineReader(file)) {
+            if (!reader.nextLine()) throw reader.error("missing the target customer's name");
+            String targetName = reader.line();
+            for (int i = 0; i < shards.length; i++) {
+                shards[i].tell(request(ShardCore.INIT, out -> {
+                    out.writeBoolean(options.sparse);
+                    out.writeBoolean(options.index);
+                    out.writeBoolean(options.scalar);
+                    out.writeBoolean(enhanced);
+                    ShardCore.putString(out, targetName);
+                }, shardOf(targetName) == i));
+            }
+            boolean found = false;
+            int width = 0; // dense stores take the width of the first row, which must be every shard's width
+            RatingRow row = new RatingRow();
+            while (reader.nextLine()) {
+                if (!reader.nextToken()) continue; // skip blank lines
+                String name = reader.token();
+                reader.readRatings(row);
+                if (!options.sparse) {
+                    if (width == 0) width = row.width;
+                    else if (row.width > width) throw reader.error("song" + row.width + " is outside the catalog of " + width + " songs");
+                    else if (row.positional && row.width < width) throw reader.error("no rating for song" + (row.width + 1) + " of the catalog of " + width + " songs");
+                    row.width = width;
+                }
+                songs = Math.max(songs, row.width);
+                byte[] load = request(ShardCore.LOAD, out -> {
+                    ShardCore.putString(out, name);
+                    ShardCore.putRow(out, row);
+                });
+                if (name.equals(targetName)) {
+                    found = true;
+                    for (Shard shard : shards) shard.tell(load);
+                } else {
+                    shards[shardOf(name)].tell(load);
+                }
+            }
+            if (!found) throw new IllegalArgumentException(file.getName() + ": no ratings for the target " + targetName);
+        }
+        DataInputStream[] answers = all(request(ShardCore.FINISH, out -> {}));
+        for (int i = 0; i < shards.length; i++) {
+            if (answers[i].readByte() == ShardCore.ERROR) {
+                throw new IllegalArgumentException(file.getName() + ": shard " + i + ": " + ShardCore.getString(answers[i]));
+            }
+        }
+    }
+
+    private void answer(File file) throws IOException {
+        try (ActionReader reader = new ActionReader(file)) {
+            Action action = new Action();
+            while (reader.next(action)) {
+                answer(action);
+            }
+        }
+    }
+
+    // answer one request like RecommendationSystem.runAction
+    private void answer(Action action) throws IOException {
+        switch (action.kind) {
+            case ADD_CUSTOMER: {
+                out.println(action.line); // output the request itself
+                DataInputStream answer = one(shardOf(action.name), request(ShardCore.ADD, o -> {
+                    ShardCore.putString(o, action.name);
+                    ShardCore.putRow(o, action.row);
+                }));
+                if (answer.readByte() == ShardCore.ERROR) fail(action, answer);
+                songs = Math.max(songs, action.row.width);
+                break;
+            }
+            case RECOMMEND_SONGS:
+                out.println(action.name == null ? closest(all(request(ShardCore.RECOMMEND, o -> {}))) : recommendNamed(action.name));
+                break;
+            case PRINT_CUSTOMER_DISTANCE_RATINGS:
+                printTable();
+                break;
+            case UPDATE_RATING: {
+                // checked here since one shard's catalog may be narrower than the single store's with --sparse
+                if (action.song >= songs || action.value > CustomerStore.MAX_RATING) {
+                    out.println("wrong query");
+                    break;
+                }
+                DataInputStream answer = one(shardOf(action.name), request(ShardCore.UPDATE, o -> {
+                    ShardCore.putString(o, action.name);
+                    o.writeInt(action.song);
+                    o.writeInt(action.value);
+                }));
+                byte status = answer.readByte();
+                if (status == ShardCore.WRONG) {
+                    out.println("wrong query");
+                    break;
+                }
+                out.println(action.line); // output the request itself
+                if (status == ShardCore.ERROR) fail(action, answer);
+                if (status == ShardCore.TARGET) { // every other shard keeps a copy of the target
+                    byte[] update = request(ShardCore.UPDATE_TARGET, o -> {
+                        o.writeInt(action.song);
+                        o.writeInt(action.value);
+                    });
+                    int owner = shardOf(action.name);
+                    for (int i = 0; i < shards.length; i++) {
+                        if (i != owner) shards[i].ask(update);
+                    }
+                    for (int i = 0; i < shards.length; i++) {
+                        if (i == owner) continue;
+                        DataInputStream other = shards[i].receive();
+                        if (other.readByte() == ShardCore.ERROR) fail(action, other);
+                    }
+                }
+                break;
+            }
+            case REMOVE_CUSTOMER: {
+                DataInputStream answer = one(shardOf(action.name), request(ShardCore.REMOVE, o -> ShardCore.putString(o, action.name)));
+                out.println(answer.readByte() == ShardCore.WRONG ? "wrong query" : action.line);
+                break;
+            }
+            default: // no snapshot to save, or a wrong query
+                out.println("wrong query");
+        }
+    }
+
+    private void fail(Action action, DataInputStream answer) throws IOException {
+        throw action.error(ShardCore.getString(answer));
+    }
+
+    // closest candidate of the shards' answers by distance, then name
+    private String closest(DataInputStream[] answers) throws IOException {
+        String best = null, bestName = null;
+        double bestDistance = 0;
+        for (DataInputStream answer : answers) {
+            if (!answer.readBoolean()) continue;
+            double distance = answer.readDouble();
+            String name = ShardCore.getString(answer);
+            String line = ShardCore.getString(answer);
+            if (best == null || distance < bestDistance || (distance == bestDistance && name.compareTo(bestName) < 0)) {
+                best = line;
+                bestName = name;
+                bestDistance = distance;
+            }
+        }
+        return best == null ? "RecommendSongs none" : best;
+    }
+
+    // RecommendSongs <name>: the owner sends the customer's ratings, then every shard looks for its closest customer
+    private String recommendNamed(String name) throws IOException {
+        int owner = shardOf(name);
+        DataInputStream answer = one(owner, request(ShardCore.ROW, o -> ShardCore.putString(o, name)));
+        if (answer.readByte() == ShardCore.WRONG) return "wrong query";
+        RatingRow row = ShardCore.getRow(answer);
+        for (int i = 0; i < shards.length; i++) {
+            shards[i].ask(request(ShardCore.NAMED, o -> {
+                ShardCore.putString(o, name);
+                ShardCore.putRow(o, row);
+            }, i == owner));
+        }
+        DataInputStream[] answers = new DataInputStream[shards.length];
+        for (int i = 0; i < shards.length; i++) answers[i] = shards[i].receive();
+        return closest(answers);
+    }
+
+    // the shards' lines merged by name, each row as many songs wide as the widest shard
+    private void printTable() throws IOException {
+        int columns = 0;
+        for (DataInputStream answer : all(request(ShardCore.WIDTH, o -> {}))) columns = Math.max(columns, answer.readInt());
+        for (int i = 0; i < shards.length; i++) {
+            int width = columns;
+            shards[i].ask(request(ShardCore.TABLE, o -> o.writeInt(width), i == 0));
+        }
+        String[][] names = new String[shards.length][];
+        byte[][] lines = new byte[shards.length][];
+        for (int i = 0; i < shards.length; i++) {
+            DataInputStream answer = shards[i].receive();
+            byte[] head = new byte[answer.readInt()];
+            answer.readFully(head);
+            out.write(head, 0, head.length); // header and target line from the first shard
+            names[i] = new String[answer.readInt()];
+            for (int j = 0; j < names[i].length; j++) names[i][j] = ShardCore.getString(answer);
+            lines[i] = new byte[answer.readInt()];
+            answer.readFully(lines[i]);
+        }
+        int[] next = new int[shards.length]; // next customer of every shard
+        int[] at = new int[shards.length]; // start of its line
+        while (true) {
+            int pick = -1;
+            for (int i = 0; i < shards.length; i++) {
+                if (next[i] == names[i].length) continue;
+                if (pick == -1 || names[i][next[i]].compareTo(names[pick][next[pick]]) < 0) pick = i;
+            }
+            if (pick == -1) break;
+            int end = at[pick];
+            while (lines[pick][end] != '\n') end++;
+            out.write(lines[pick], at[pick], end + 1 - at[pick]);
+            at[pick] = end + 1;
+            next[pick]++;
+        }
+        out.flush();
+    }
+
+    // ask one shard and wait for its answer
+    private DataInputStream one(int shard, byte[] request) throws IOException {
+        shards[shard].ask(request);
+        return shards[shard].receive();
+    }
+
+    // ask every shard at once, then collect the answers in shard order
+    private DataInputStream[] all(byte[] request) throws IOException {
+        for (Shard shard : shards) shard.ask(request);
+        DataInputStream[] answers = new DataInputStream[shards.length];
+        for (int i = 0; i < shards.length; i++) answers[i] = shards[i].receive();
+        return answers;
+    }
+
+    // fields of one request
+    interface Fields {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static byte[] request(byte kind, Fields fields) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(kind);
+        fields.write(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    // a request ending with one flag
+    private static byte[] request(byte kind, Fields fields, boolean flag) throws IOException {
+        return request(kind, out -> {
+            fields.write(out);
+            out.writeBoolean(flag);
+        });
+    }
+}
@@ -0,0 +1,315 @@
+/**
+ * Description of this file : the state of one shard and its answers to the coordinator's requests.
+ * Every request and answer is a byte kind followed by fields written with DataOutputStream, strings as int length |
+ * UTF-8 bytes, so LocalShard and ShardWorker answer them the same way.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+
+// state of one shard and the answers to the coordinator's requests; used by one thread at a time
+class ShardCore {
+
+    // requests
+    static final byte INIT = 1; // sparse, index, scalar, enhanced, target name, whether the target's name hashes here
+    static final byte LOAD = 2; // name, row of the ratings file; no answer, errors are kept for FINISH
+    static final byte FINISH = 3; // score the loaded customers and build the heap
+    static final byte ADD = 4; // AddCustomer name, row
+    static final byte RECOMMEND = 5; // closest customer of the heap with a song to recommend to the target
+    static final byte ROW = 6; // ratings of the newest customer with a name
+    static final byte NAMED = 7; // name, row, owner : closest customer with a song to recommend to that row
+    static final byte UPDATE = 8; // UpdateRating name, song, value
+    static final byte UPDATE_TARGET = 9; // song, value : the target's rating changed in the shard owning its name
+    static final byte REMOVE = 10; // RemoveCustomer name
+    static final byte WIDTH = 11; // number of songs of the store
+    static final byte TABLE = 12; // columns, head : the shard's lines of PrintCustomerDistanceRatings
+
+    // answer status
+    static final byte OK = 0;
+    static final byte WRONG = 1; // answered "wrong query"
+    static final byte ERROR = 2; // followed by the message of the IllegalArgumentException
+    static final byte TARGET = 3; // the UpdateRating changed the target
+
+    private CustomerStore store;
+    private boolean enhanced; // bottom up heap construction of RecommendationSystemEnhanced
+    private String targetName;
+    private boolean ownsTarget; // the target's name hashes to this shard
+    private int target = -1;
+    private final IdList loaded = new IdList();
+    private final BitSet copies = new BitSet(); // rows named like the target that another shard owns
+    private MinHeap heap;
+    private NameOrderedList list;
+    private String failure; // first error while loading
+
+    // answer one request; null for a request without an answer
+    byte[] handle(byte[] request) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(request));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        byte kind = in.readByte();
+        switch (kind) {
+            case INIT:
+                init(in);
+                return null;
+            case LOAD:
+                load(getString(in), getRow(in));
+                return null;
+            case FINISH:
+                finish(out);
+                break;
+            case ADD:
+                add(getString(in), getRow(in), out);
+                break;
+            case RECOMMEND:
+                recommend(out);
+                break;
+            case ROW:
+                row(getString(in), out);
+                break;
+            case NAMED:
+                named(getString(in), getRow(in), in.readBoolean(), out);
+                break;
+            case UPDATE:
+                update(store.idOf(getString(in)), in.readInt(), in.readInt(), out);
+                break;
+            case UPDATE_TARGET:
+                update(target, in.readInt(), in.readInt(), out);
+                break;
+            case REMOVE:
+                remove(getString(in), out);
+                break;
+            case WIDTH:
+                out.writeInt(store.songCount());
+                break;
+            case TABLE:
+                table(in.readInt(), in.readBoolean(), out);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown shard request " + kind);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private void init(DataInputStream in) throws IOException {
+        store = CustomerStore.create(in.readBoolean());
+        if (in.readBoolean()) store.enableSongIndex();
+        if (in.readBoolean()) store.useScalarKernel();
+        enhanced = in.readBoolean();
+        targetName = getString(in);
+        ownsTarget = in.readBoolean();
+    }
+
+    // one line of the ratings file; the last row with the target's name is the target, as in loadRatings
+    private void load(String name, RatingRow row) {
+        if (failure != null) return;
+        try {
+            int id = store.add(name, row);
+            if (name.equals(targetName)) {
+                target = id;
+                if (!ownsTarget) copies.set(id);
+            } else {
+                loaded.add(id);
+            }
+        } catch (IllegalArgumentException e) {
+            failure = e.getMessage();
+        }
+    }
+
+    // distances and heap of the loaded customers, in the same order as the two mains build them
+    private void finish(DataOutputStream out) throws IOException {
+        if (failure != null) {
+            out.writeByte(ERROR);
+            putString(out, failure);
+            return;
+        }
+        loaded.sort(store::compare);
+        RecommendationSystem.scoreCustomers(store, target, null);
+        if (enhanced) {
+            MinHeap2 built = new MinHeap2(store);
+            built.addElements(RecommendationSystem.measurable(store, loaded, null));
+            built.buildHeap();
+            heap = built;
+        } else {
+            heap = new MinHeap(store);
+            for (int i = 0; i < loaded.size(); i++) {
+                if (store.distance(loaded.get(i)) != -1) heap.insert(loaded.get(i));
+            }
+        }
+        list = new NameOrderedList(store, loaded);
+        out.writeByte(OK);
+    }
+
+    private void add(String name, RatingRow row, DataOutputStream out) throws IOException {
+        try {
+            RecommendationSystem.addCus(name, row, store, list, target, heap);
+            out.writeByte(OK);
+        } catch (IllegalArgumentException e) {
+            out.writeByte(ERROR);
+            putString(out, e.getMessage());
+        }
+    }
+
+    // the heap is walked without removing anybody, which gives the same answers as removing (see --keep-heap)
+    private void recommend(DataOutputStream out) throws IOException {
+        int id = heap.findFirst(other -> store.hasLikedUnrated(target, other));
+        if (id == -1) candidate(-1, 0, null, out);
+        else candidate(id, store.distance(id), RecommendationSystem.answer(store, target, id), out);
+    }
+
+    // found | distance | name | answer line
+    private void candidate(int id, double distance, String answer, DataOutputStream out) throws IOException {
+        out.writeBoolean(id != -1);
+        if (id == -1) return;
+        out.writeDouble(distance);
+        putString(out, store.name(id));
+        putString(out, answer);
+    }
+
+    private void row(String name, DataOutputStream out) throws IOException {
+        int id = store.idOf(name);
+        if (id == -1) {
+            out.writeByte(WRONG);
+            return;
+        }
+        out.writeByte(OK);
+        putRow(out, store.readRow(id, new RatingRow()));
+    }
+
+    // closest customer with a song rated >= LIKED that the row did not rate, as NeighbourCache.recommend picks it:
+    // by distance, then name, then the older customer. the owner of the name leaves the asking customer out, and
+    // only the owner of the target's name counts the rows named like the target
+    private void named(String name, RatingRow asking, boolean owner, DataOutputStream out) throws IOException {
+        int self = owner ? store.idOf(name) : -1;
+        int[] ratings = new int[Math.max(asking.width, store.songCount())];
+        for (int i = 0; i < asking.count; i++) {
+            if (asking.songs[i] >= ratings.length) ratings = Arrays.copyOf(ratings, asking.songs[i] + 1);
+            ratings[asking.songs[i]] = asking.values[i];
+        }
+        RatingRow row = new RatingRow();
+        int best = -1;
+        double bestDistance = 0;
+        for (int id = 0, size = store.size(); id < size; id++) {
+            if (id == self || copies.get(id) || store.isRemoved(id)) continue;
+            store.readRow(id, row);
+            int cnt = 0, sum = 0;
+            boolean liked = false;
+            for (int i = 0; i < row.count; i++) {
+                int song = row.songs[i], value = row.values[i];
+                if (value == 0) continue;
+                int mine = song < ratings.length ? ratings[song] : 0;
+                if (mine != 0) {
+                    cnt++;
+                    sum += Math.abs(mine - value);
+                } else if (value >= CustomerStore.LIKED) {
+                    liked = true;
+                }
+            }
+            if (cnt == 0 || !liked) continue;
+            double d = CustomerStore.distance(cnt, sum); // exact integer counts, so the same value as calculate
+            if (best == -1 || d < bestDistance || (d == bestDistance && store.compareNameThenId(id, best) < 0)) {
+                best = id;
+                bestDistance = d;
+            }
+        }
+        String answer = null;
+        if (best != -1) {
+            StringBuilder sb = new StringBuilder("RecommendSongs ").append(store.name(best)).append(' ');
+            store.readRow(best, row);
+            for (int i = 0; i < row.count; i++) {
+                int song = row.songs[i];
+                if (row.values[i] >= CustomerStore.LIKED && (song >= ratings.length || ratings[song] == 0)) {
+                    sb.append("song").append(song + 1).append(' ').append(row.values[i]).append(' ');
+                }
+            }
+            answer = sb.toString();
+        }
+        candidate(best, bestDistance, answer, out);
+    }
+
+    private void update(int id, int song, int value, DataOutputStream out) throws IOException {
+        if (id == -1) {
+            out.writeByte(WRONG);
+            return;
+        }
+        try {
+            RecommendationSystem.updateRating(id, song, value, store, target, heap);
+            out.writeByte(id == target ? TARGET : OK);
+        } catch (IllegalArgumentException e) {
+            out.writeByte(ERROR);
+            putString(out, e.getMessage());
+        }
+    }
+
+    private void remove(String name, DataOutputStream out) throws IOException {
+        int id = store.idOf(name);
+        if (id == -1 || id == target) {
+            out.writeByte(WRONG);
+            return;
+        }
+        RecommendationSystem.removeCus(id, store, list, heap);
+        out.writeByte(OK);
+    }
+
+    // head bytes | customers | their names in name order | their lines, one after the other
+    private void table(int columns, boolean head, DataOutputStream out) throws IOException {
+        ByteArrayOutputStream lines = new ByteArrayOutputStream();
+        TableWriter writer = new TableWriter(lines);
+        writer.columns(columns);
+        if (head) writer.writeHead(store, target);
+        writer.flush();
+        out.writeInt(lines.size());
+        lines.writeTo(out);
+        lines.reset();
+        ArrayList<String> names = new ArrayList<>(list.size());
+        list.forEach(id -> {
+            names.add(store.name(id));
+            writer.writeCustomer(store, id);
+        });
+        writer.flush();
+        out.writeInt(names.size());
+        for (String name : names) putString(out, name);
+        out.writeInt(lines.size());
+        lines.writeTo(out);
+    }
+
+    static void putString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String getString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // width | positional | count | (song, rating) pairs
+    static void putRow(DataOutputStream out, RatingRow row) throws IOException {
+        out.writeInt(row.width);
+        out.writeBoolean(row.positional);
+        out.writeInt(row.count);
+        for (int i = 0; i < row.count; i++) {
+            out.writeInt(row.songs[i]);
+            out.writeInt(row.values[i]);
+        }
+    }
+
+    static RatingRow getRow(DataInputStream in) throws IOException {
+        RatingRow row = new RatingRow();
+        int width = in.readInt();
+        boolean positional = in.readBoolean();
+        for (int i = in.readInt(); i > 0; i--) row.add(in.readInt(), in.readInt());
+        row.width = width;
+        row.positional = positional;
+        return row;
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * Description of this file : checks that sharded runs answer exactly like the single process.
+ * The ratings and actions files are answered three times in separate JVMs: by the program alone, with
+ * --shards=N threads, and with N ShardWorker processes started on free local ports. Both sharded outputs must be
+ * byte for byte the output of the program alone.
+ *
+ * usage : java ShardHarness ratings.txt actions.txt [--shards=N] [--enhanced] [other options of the program]
+ */
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ShardHarness {
+
+    private static final String JAVA = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+    private static final String CLASS_PATH = System.getProperty("java.class.path");
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) {
+            System.err.println("usage: java ShardHarness ratings.txt actions.txt [--shards=N] [--enhanced] [options]");
+            System.exit(2);
+        }
+        int shards = 4;
+        String program = "RecommendationSystem";
+        List<String> options = new ArrayList<>();
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].startsWith("--shards=")) shards = Integer.parseInt(args[i].substring("--shards=".length()));
+            else if (args[i].equals("--enhanced")) program = "RecommendationSystemEnhanced";
+            else options.add(args[i]);
+        }
+        byte[] expected = run(program, args[0], args[1], options, null);
+        boolean same = compare("--shards=" + shards, expected, run(program, args[0], args[1], options, "--shards=" + shards));
+
+        List<Process> workers = new ArrayList<>();
+        try {
+            StringBuilder addresses = new StringBuilder();
+            for (int i = 0; i < shards; i++) {
+                Process worker = new ProcessBuilder(JAVA, "-cp", CLASS_PATH, "ShardWorker", "0")
+                        .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+                workers.add(worker);
+                // first line: "ShardWorker listening on PORT"
+                String line = new BufferedReader(new InputStreamReader(worker.getInputStream(), StandardCharsets.UTF_8)).readLine();
+                if (line == null) throw new IOException("ShardWorker " + i + " did not start");
+                if (addresses.length() > 0) addresses.append(',');
+                addresses.append("127.0.0.1:").append(line.substring(line.lastIndexOf(' ') + 1));
+            }
+            String flag = "--workers=" + addresses;
+            same &= compare(shards + " worker processes", expected, run(program, args[0], args[1], options, flag));
+        } finally {
+            for (Process worker : workers) worker.destroy();
+        }
+        System.out.println(same ? "identical answers" : "answers differ");
+        System.exit(same ? 0 : 1);
+    }
+
+    // standard output of the program run in a JVM of its own; its errors go to this process's error stream
+    private static byte[] run(String program, String ratings, String actions, List<String> options, String flag)
+            throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>(Arrays.asList(JAVA, "-cp", CLASS_PATH, program, ratings, actions));
+        command.addAll(options);
+        if (flag != null) command.add(flag);
+        Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (InputStream in = process.getInputStream()) {
+            in.transferTo(output);
+        }
+        process.waitFor();
+        return output.toByteArray();
+    }
+
+    // print whether a run gave the expected bytes, with the first line that differs
+    private static boolean compare(String what, byte[] expected, byte[] actual) {
+        if (Arrays.equals(expected, actual)) {
+            System.out.println(what + ": same " + expected.length + " bytes");
+            return true;
+        }
+        String[] want = new String(expected, StandardCharsets.UTF_8).split("\n", -1);
+        String[] got = new String(actual, StandardCharsets.UTF_8).split("\n", -1);
+        int line = 0;
+        while (line < want.length && line < got.length && want[line].equals(got[line])) line++;
+        System.out.println(what + ": differs at line " + (line + 1));
+        System.out.println("  expected: " + (line < want.length ? want[line] : "<end>"));
+        System.out.println("  actual  : " + (line < got.length ? got[line] : "<end>"));
+        return false;
+    }
+}
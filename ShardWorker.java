@@ -0,0 +1,58 @@
+/**
+ * Description of this file : process serving one shard of the customers over a local socket for --workers.
+ * Every connection gets a fresh shard; requests are answered one after another in the order they arrive, so the
+ * coordinator can send to all of its workers first and then read their answers.
+ *
+ * usage : java ShardWorker [port]      (port 0 or none picks a free one, printed on the first output line)
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+public class ShardWorker {
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+        try (ServerSocket server = new ServerSocket(port, 1, InetAddress.getLoopbackAddress())) {
+            System.out.println("ShardWorker listening on " + server.getLocalPort());
+            System.out.flush();
+            while (true) {
+                try (Socket socket = server.accept()) {
+                    serve(socket);
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("ShardWorker: " + e); // the coordinator sees the connection close
+                }
+            }
+        }
+    }
+
+    // answer the requests of one coordinator until it closes the connection
+    private static void serve(Socket socket) throws IOException {
+        socket.setTcpNoDelay(true);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+        ShardCore core = new ShardCore();
+        while (true) {
+            int length;
+            try {
+                length = in.readInt();
+            } catch (EOFException e) {
+                return;
+            }
+            byte[] request = new byte[length];
+            in.readFully(request);
+            byte[] answer = core.handle(request);
+            if (answer == null) continue; // rows being loaded get no answer
+            out.writeInt(answer.length);
+            out.write(answer);
+            out.flush();
+        }
+    }
+}
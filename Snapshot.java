@@ -0,0 +1,74 @@
+/**
+ * Description of this file : binary snapshot of a run, so a restart does not parse the ratings file, calculate every
+ * distance and build the heap again.
+ * The file holds a magic number and a version, the target, the number of actions already answered, the customer
+ * columns (names, distances, removed customers, ratings), the heap array in its current order and the name ordered customer list,
+ * followed by a CRC32C of everything before it. Reading maps the file with FileChannel.map and copies every column
+ * in bulk, so only the names become objects.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+// state restored from a snapshot file
+class Snapshot {
+
+    private static final long MAGIC = 0x4d5253534e415053L; // "MRSSNAPS"
+    static final int VERSION = 2; // 2 added the customers taken out by RemoveCustomer
+
+    final CustomerStore store;
+    final int targetCus;
+    final int[] heap; // heap array in heap order
+    final IdList customerList; // every customer but the target, in name order
+    final long actionsDone; // actions of the actions file answered before the snapshot
+
+    private Snapshot(CustomerStore store, int targetCus, int[] heap, IdList customerList, long actionsDone) {
+        this.store = store;
+        this.targetCus = targetCus;
+        this.heap = heap;
+        this.customerList = customerList;
+        this.actionsDone = actionsDone;
+    }
+
+    // write the state of a session; the file is replaced only once the new one is complete and on disk
+    static void write(File file, Session session, long actionsDone) throws IOException {
+        Path path = file.toPath();
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (SnapshotWriter out = new SnapshotWriter(temp)) {
+            out.putLong(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(session.targetCus);
+            out.putLong(actionsDone);
+            session.store.writeTo(out);
+            int[] heap = session.heap.toArray();
+            out.putInt(heap.length);
+            out.putInts(heap, 0, heap.length);
+            out.putInt(session.customerList.size());
+            session.customerList.forEach(out::putInt);
+            out.finish();
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // read a snapshot written by write; a damaged or foreign file is an IllegalArgumentException
+    static Snapshot read(File file) throws IOException {
+        try (SnapshotReader in = new SnapshotReader(file)) {
+            if (in.getLong() != MAGIC) throw in.error("not a snapshot file");
+            int version = in.getInt();
+            if (version < 1 || version > VERSION) throw in.error("snapshot version " + version + " but this program reads versions 1 to " + VERSION);
+            int targetCus = in.getInt();
+            long actionsDone = in.getLong();
+            CustomerStore store = CustomerStore.readFrom(in, version);
+            int[] heap = new int[in.getCount(4)];
+            in.getInts(heap, 0, heap.length);
+            IdList customerList = new IdList();
+            for (int i = in.getCount(4); i > 0; i--) customerList.add(in.getInt());
+            in.verify();
+            if (targetCus < 0 || targetCus >= store.size()) throw in.error("target " + targetCus + " is not a customer");
+            return new Snapshot(store, targetCus, heap, customerList, actionsDone);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * Description of this file : reader of the snapshot file. The file is mapped with FileChannel.map a window at
+ * a time, arrays are copied out in bulk, and the CRC32C of the bytes read is checked against the one at the end.
+ */
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+// reader of a snapshot mapped window by window, checking the CRC32C of every byte it reads
+class SnapshotReader implements Closeable {
+
+    private static final long WINDOW = 1L << 28; // bytes mapped at once
+
+    private final String fileName;
+    private final FileChannel channel;
+    private final long length; // bytes before the checksum
+    private MappedByteBuffer window;
+    private long windowStart; // file position of the window
+    private int checked; // bytes of the window already added to the checksum
+    private final CRC32C crc = new CRC32C();
+    private byte[] text = new byte[64]; // bytes of one name
+
+    SnapshotReader(File file) throws IOException {
+        fileName = file.getName();
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        length = channel.size() - 8;
+        if (length < 0) throw error("snapshot is truncated");
+        map(0);
+    }
+
+    public int getInt() {
+        need(4);
+        return window.getInt();
+    }
+
+    public long getLong() {
+        need(8);
+        return window.getLong();
+    }
+
+    // a number of items of itemBytes bytes each that follow it; a count the rest of the file cannot hold is
+    // damage, caught here before anything is allocated for it since the checksum is only known at the end
+    public int getCount(long itemBytes) {
+        int n = getInt();
+        if (n < 0 || n * itemBytes > remaining()) throw error("snapshot is damaged");
+        return n;
+    }
+
+    // bytes left before the checksum
+    public long remaining() {
+        return length - windowStart - window.position();
+    }
+
+    public String getString() {
+        int n = getCount(1);
+        if (text.length < n) text = new byte[Math.max(n, text.length * 2)];
+        getBytes(text, 0, n);
+        return new String(text, 0, n, StandardCharsets.UTF_8);
+    }
+
+    public void getBytes(byte[] a, int off, int len) {
+        while (len > 0) {
+            need(1);
+            int k = Math.min(len, window.remaining());
+            window.get(a, off, k);
+            off += k;
+            len -= k;
+        }
+    }
+
+    public void getInts(int[] a, int off, int len) {
+        while (len > 0) {
+            need(4);
+            int k = Math.min(len, window.remaining() / 4);
+            window.asIntBuffer().get(a, off, k);
+            window.position(window.position() + 4 * k);
+            off += k;
+            len -= k;
+        }
+    }
+
+    public void getLongs(long[] a, int off, int len) {
+        while (len > 0) {
+            need(8);
+            int k = Math.min(len, window.remaining() / 8);
+            window.asLongBuffer().get(a, off, k);
+            window.position(window.position() + 8 * k);
+            off += k;
+            len -= k;
+        }
+    }
+
+    public void getDoubles(double[] a, int off, int len) {
+        while (len > 0) {
+            need(8);
+            int k = Math.min(len, window.remaining() / 8);
+            window.asDoubleBuffer().get(a, off, k);
+            window.position(window.position() + 8 * k);
+            off += k;
+            len -= k;
+        }
+    }
+
+    // check that every byte was read and that the checksum matches
+    public void verify() throws IOException {
+        checksum();
+        if (windowStart + window.position() != length) throw error("snapshot has unexpected bytes at the end");
+        ByteBuffer stored = ByteBuffer.allocate(8);
+        while (stored.hasRemaining()) {
+            if (channel.read(stored, length + stored.position()) < 0) throw error("snapshot is truncated");
+        }
+        if (stored.getLong(0) != crc.getValue()) throw error("snapshot checksum does not match, the file is damaged");
+    }
+
+    // error naming the snapshot file
+    public IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(fileName + ": " + message);
+    }
+
+    // make sure n bytes can be read from the window, mapping the next part of the file when needed
+    private void need(int n) {
+        if (window.remaining() >= n) return;
+        checksum();
+        long next = windowStart + window.position();
+        if (length - next < n) throw error("snapshot is truncated");
+        try {
+            map(next);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void map(long start) throws IOException {
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW, length - start));
+        windowStart = start;
+        checked = 0;
+    }
+
+    // add the bytes read from the window since the last call to the checksum
+    private void checksum() {
+        ByteBuffer read = window.duplicate();
+        read.position(checked).limit(window.position());
+        crc.update(read);
+        checked = window.position();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
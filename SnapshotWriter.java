@@ -0,0 +1,117 @@
+/**
+ * Description of this file : buffered writer of the snapshot file. Values and whole arrays go through one 1 MB
+ * buffer, and finish appends the CRC32C of every byte written before it.
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+// buffered writer of primitive values and arrays keeping a CRC32C of the bytes written
+class SnapshotWriter implements Closeable {
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+    private final CRC32C crc = new CRC32C();
+
+    SnapshotWriter(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    public void putInt(int value) {
+        room(4);
+        buffer.putInt(value);
+    }
+
+    public void putLong(long value) {
+        room(8);
+        buffer.putLong(value);
+    }
+
+    public void putString(String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        putInt(bytes.length);
+        putBytes(bytes, 0, bytes.length);
+    }
+
+    public void putBytes(byte[] a, int off, int len) {
+        while (len > 0) {
+            room(1);
+            int k = Math.min(len, buffer.remaining());
+            buffer.put(a, off, k);
+            off += k;
+            len -= k;
+        }
+    }
+
+    public void putInts(int[] a, int off, int len) {
+        while (len > 0) {
+            room(4);
+            int k = Math.min(len, buffer.remaining() / 4);
+            buffer.asIntBuffer().put(a, off, k);
+            buffer.position(buffer.position() + 4 * k);
+            off += k;
+            len -= k;
+        }
+    }
+
+    public void putLongs(long[] a, int off, int len) {
+        while (len > 0) {
+            room(8);
+            int k = Math.min(len, buffer.remaining() / 8);
+            buffer.asLongBuffer().put(a, off, k);
+            buffer.position(buffer.position() + 8 * k);
+            off += k;
+            len -= k;
+        }
+    }
+
+    public void putDoubles(double[] a, int off, int len) {
+        while (len > 0) {
+            room(8);
+            int k = Math.min(len, buffer.remaining() / 8);
+            buffer.asDoubleBuffer().put(a, off, k);
+            buffer.position(buffer.position() + 8 * k);
+            off += k;
+            len -= k;
+        }
+    }
+
+    // append the checksum of everything written and force the file to disk
+    public void finish() throws IOException {
+        write();
+        buffer.putLong(crc.getValue());
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+        channel.force(true);
+    }
+
+    // make room for n bytes in the buffer
+    private void room(int n) {
+        if (buffer.remaining() >= n) return;
+        try {
+            write();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void write() throws IOException {
+        buffer.flip();
+        crc.update(buffer.duplicate());
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
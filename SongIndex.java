@@ -0,0 +1,126 @@
+/**
+ * Description of this file : inverted index from every song to the customers who rated it.
+ * Customers sharing no rated song with a target always get distance -1, so scoring a target only has to
+ * walk the posting lists of the songs the target rated instead of comparing against every customer.
+ */
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+// song -> (customer id, rating) posting lists, kept up to date by CustomerStore.add and setRating
+class SongIndex {
+
+    private final CustomerStore store;
+    private int[][] postings = new int[16][]; // song -> ids of the customers who rated it, in id order
+    private byte[][] ratings = new byte[16][]; // song -> rating given by the customer at the same position
+    private int[] lengths = new int[16]; // song -> number of postings
+
+    // per customer accumulators used while scoring one target
+    private int[] cnt = new int[0];
+    private int[] sum = new int[0];
+
+    public SongIndex(CustomerStore store) {
+        this.store = store;
+    }
+
+    // add the ratings of a new customer; ids are added in increasing order
+    public void add(int id, RatingRow row) {
+        for (int i = 0; i < row.count; i++) {
+            int song = row.songs[i];
+            ensureRoom(song);
+            int n = lengths[song];
+            postings[song][n] = id;
+            ratings[song][n] = (byte) row.values[i];
+            lengths[song] = n + 1;
+        }
+    }
+
+    // change the rating of one song by a stored customer: a new rating is inserted in id order, 0 removes it
+    public void update(int id, int song, int value) {
+        int n = song < lengths.length ? lengths[song] : 0;
+        int i = n == 0 ? -1 : Arrays.binarySearch(postings[song], 0, n, id);
+        if (i >= 0) {
+            if (value != 0) {
+                ratings[song][i] = (byte) value;
+            } else {
+                System.arraycopy(postings[song], i + 1, postings[song], i, n - i - 1);
+                System.arraycopy(ratings[song], i + 1, ratings[song], i, n - i - 1);
+                lengths[song] = n - 1;
+            }
+        } else if (value != 0) {
+            ensureRoom(song);
+            int at = -(i + 1);
+            System.arraycopy(postings[song], at, postings[song], at + 1, n - at);
+            System.arraycopy(ratings[song], at, ratings[song], at + 1, n - at);
+            postings[song][at] = id;
+            ratings[song][at] = (byte) value;
+            lengths[song] = n + 1;
+        }
+    }
+
+    // visit every customer who rated the song, in id order
+    public void forEachRater(int song, IntConsumer action) {
+        if (song >= lengths.length) return;
+        int[] ids = postings[song];
+        for (int j = 0, n = lengths[song]; j < n; j++) {
+            action.accept(ids[j]);
+        }
+    }
+
+    // room for one more posting of the song
+    private void ensureRoom(int song) {
+        if (song >= lengths.length) {
+            int newLength = Math.max(song + 1, lengths.length * 2);
+            postings = Arrays.copyOf(postings, newLength);
+            ratings = Arrays.copyOf(ratings, newLength);
+            lengths = Arrays.copyOf(lengths, newLength);
+        }
+        int n = lengths[song];
+        if (postings[song] == null) {
+            postings[song] = new int[4];
+            ratings[song] = new byte[4];
+        } else if (n == postings[song].length) {
+            postings[song] = Arrays.copyOf(postings[song], n * 2);
+            ratings[song] = Arrays.copyOf(ratings[song], n * 2);
+        }
+    }
+
+    // set the distance from target of every customer in the store; customers reached by no posting get -1
+    public void scoreAll(int target) {
+        for (int id = 0, size = store.size(); id < size; id++) {
+            if (id != target) store.setDistance(id, -1);
+        }
+        forEachMeasurable(target, store::setDistance);
+    }
+
+    // give the distance from target of every customer sharing a rated song with it, in no particular order.
+    // count and sum of differences are accumulated per candidate in one pass over the target's postings,
+    // so the result is bit identical to CustomerStore.calculate.
+    public void forEachMeasurable(int target, DistanceSink sink) {
+        int size = store.size();
+        if (cnt.length < size) {
+            cnt = new int[size];
+            sum = new int[size];
+        }
+        IdList touched = new IdList(); // candidates in the union of the posting lists
+        RatingRow row = store.readRow(target, new RatingRow());
+        for (int i = 0; i < row.count; i++) {
+            int song = row.songs[i];
+            int value = row.values[i];
+            int[] ids = postings[song];
+            byte[] values = ratings[song];
+            for (int j = 0, n = lengths[song]; j < n; j++) {
+                int id = ids[j];
+                if (id == target) continue;
+                if (cnt[id]++ == 0) touched.add(id);
+                sum[id] += Math.abs(value - values[j]);
+            }
+        }
+        for (int i = 0; i < touched.size(); i++) {
+            int id = touched.get(i);
+            sink.accept(id, CustomerStore.distance(cnt[id], sum[id]));
+            cnt[id] = 0;
+            sum[id] = 0;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/**
+ * Description of this file : CustomerStore layout for large catalogs where every customer rates a few songs.
+ * Each customer's ratings are one sorted (song, rating) run in a shared arena, so memory and calculate follow the
+ * ratings present instead of the catalog size.
+ */
+
+import java.util.Arrays;
+
+// ratings kept as sorted (song, rating) runs in one arena; cost follows the ratings present, not the catalog size
+class SparseCustomerStore extends CustomerStore {
+
+    private int songCount; // highest song number seen so far
+    private int[] offsets = new int[INITIAL_CAPACITY]; // id -> start of its run in the arena
+    private int[] lengths = new int[INITIAL_CAPACITY]; // id -> number of rated songs
+    private int[] songs = new int[INITIAL_CAPACITY * 8]; // arena of song indices, sorted within a run
+    private byte[] values = new byte[INITIAL_CAPACITY * 8]; // arena of ratings, parallel to songs
+    private int used; // arena slots in use
+    private int garbage; // slots of runs that moved away or shrank, reclaimed by compact
+
+    @Override
+    protected void storeRow(int id, RatingRow row) {
+        ensureArena(row.count);
+        row.sort();
+        offsets[id] = used;
+        lengths[id] = row.count;
+        for (int i = 0; i < row.count; i++) {
+            songs[used] = row.songs[i];
+            values[used++] = (byte) row.values[i];
+        }
+        songCount = Math.max(songCount, row.width);
+    }
+
+    // room for n more slots at the end of the arena
+    private void ensureArena(int n) {
+        if (used + n > songs.length) {
+            int newLength = Math.max(used + n, songs.length * 2);
+            songs = Arrays.copyOf(songs, newLength);
+            values = Arrays.copyOf(values, newLength);
+        }
+    }
+
+    @Override
+    protected void growRatings(int capacity) {
+        offsets = Arrays.copyOf(offsets, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+    }
+
+    // a new song goes into the run in song order; a run that cannot grow where it is moves to the end of the
+    // arena and leaves a hole, and the arena is compacted once holes take half of it
+    @Override
+    protected void storeRating(int id, int song, int value) {
+        int from = offsets[id], n = lengths[id];
+        int i = Arrays.binarySearch(songs, from, from + n, song);
+        if (i >= 0) {
+            if (value != 0) {
+                values[i] = (byte) value;
+                return;
+            }
+            System.arraycopy(songs, i + 1, songs, i, from + n - i - 1);
+            System.arraycopy(values, i + 1, values, i, from + n - i - 1);
+            lengths[id]--;
+            if (from + n == used) used--;
+            else garbage++;
+            return;
+        }
+        if (value == 0) return;
+        int at = -(i + 1);
+        if (from + n != used) { // not the last run: move it to the end of the arena
+            ensureArena(n + 1);
+            System.arraycopy(songs, from, songs, used, n);
+            System.arraycopy(values, from, values, used, n);
+            garbage += n;
+            at += used - from;
+            from = used;
+            offsets[id] = from;
+            used += n;
+        } else {
+            ensureArena(1);
+        }
+        System.arraycopy(songs, at, songs, at + 1, from + n - at);
+        System.arraycopy(values, at, values, at + 1, from + n - at);
+        songs[at] = song;
+        values[at] = (byte) value;
+        lengths[id]++;
+        used++;
+        songCount = Math.max(songCount, song + 1);
+        if (garbage > used / 2) compact();
+    }
+
+    // copy every run in id order into new arrays without holes
+    private void compact() {
+        int[] newSongs = new int[Math.max(used - garbage, INITIAL_CAPACITY * 8) * 2];
+        byte[] newValues = new byte[newSongs.length];
+        int next = 0;
+        for (int id = 0; id < size; id++) {
+            System.arraycopy(songs, offsets[id], newSongs, next, lengths[id]);
+            System.arraycopy(values, offsets[id], newValues, next, lengths[id]);
+            offsets[id] = next;
+            next += lengths[id];
+        }
+        songs = newSongs;
+        values = newValues;
+        used = next;
+        garbage = 0;
+    }
+
+    // runs are written in id order without gaps, so reading them back is one bulk copy per column
+    @Override
+    protected void writeRatings(SnapshotWriter out) {
+        out.putInt(songCount);
+        out.putInts(lengths, 0, size);
+        for (int id = 0; id < size; id++) {
+            out.putInts(songs, offsets[id], lengths[id]);
+        }
+        for (int id = 0; id < size; id++) {
+            out.putBytes(values, offsets[id], lengths[id]);
+        }
+    }
+
+    @Override
+    protected void readRatings(SnapshotReader in, int size, int capacity) {
+        songCount = in.getInt();
+        in.getInts(lengths, 0, size);
+        for (int id = 0; id < size; id++) {
+            if (lengths[id] < 0 || used + lengths[id] < used) throw in.error("snapshot is damaged");
+            offsets[id] = used;
+            used += lengths[id];
+        }
+        if (used * 5L > in.remaining()) throw in.error("snapshot is damaged"); // a song and a rating per pair
+        songs = new int[Math.max(used, INITIAL_CAPACITY * 8)];
+        values = new byte[songs.length];
+        in.getInts(songs, 0, used);
+        in.getBytes(values, 0, used);
+    }
+
+    @Override
+    public int songCount() { return songCount; }
+
+    @Override
+    public int rating(int id, int song) {
+        int from = offsets[id];
+        int i = Arrays.binarySearch(songs, from, from + lengths[id], song);
+        return i < 0 ? 0 : values[i];
+    }
+
+    // merge intersection of the two sorted runs
+    @Override
+    public double calculate(int target, int other) {
+        int i = offsets[target], iEnd = i + lengths[target];
+        int j = offsets[other], jEnd = j + lengths[other];
+        double cnt = 0;
+        double ratingSum = 0;
+        while (i < iEnd && j < jEnd) {
+            if (songs[i] < songs[j]) i++;
+            else if (songs[i] > songs[j]) j++;
+            else { // song rated by both
+                cnt += 1;
+                ratingSum += Math.abs(values[i++] - values[j++]);
+            }
+        }
+        return distance(cnt, ratingSum);
+    }
+
+    // a bitset per customer would cost songCount bits each, so only the target keeps one;
+    // the work per candidate follows the candidate's own ratings
+    @Override
+    public boolean hasLikedUnrated(int target, int other) {
+        long[] mask = unratedMask(target);
+        for (int j = offsets[other], end = j + lengths[other]; j < end; j++) {
+            int song = songs[j];
+            if (values[j] >= LIKED && (mask[song >>> 6] & (1L << song)) != 0) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void forEachLikedUnrated(int target, int other, RatingSink sink) {
+        long[] mask = unratedMask(target);
+        for (int j = offsets[other], end = j + lengths[other]; j < end; j++) {
+            int song = songs[j];
+            if (values[j] >= LIKED && (mask[song >>> 6] & (1L << song)) != 0) sink.accept(song, values[j]);
+        }
+    }
+
+    @Override
+    public void copyRow(int id, int[] row) {
+        Arrays.fill(row, 0, songCount, 0);
+        for (int j = offsets[id], end = j + lengths[id]; j < end; j++) {
+            row[songs[j]] = values[j];
+        }
+    }
+
+    @Override
+    public RatingRow readRow(int id, RatingRow row) {
+        row.clear();
+        for (int j = offsets[id], end = j + lengths[id]; j < end; j++) {
+            row.add(songs[j], values[j]);
+        }
+        return row;
+    }
+}
@@ -0,0 +1,226 @@
+/**
+ * Description of this file : writer for the PrintCustomerDistanceRatings table.
+ * The distance, name and ratings columns are formatted straight into one reusable byte buffer, which is written
+ * to a stream or a file in large blocks, instead of several printf and print calls per customer.
+ * The bytes are the same as "%-6.3f" / "%-6s" for the distance, "%-11s" for the name and "rating " per song.
+ */
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.text.DecimalFormatSymbols;
+import java.util.Arrays;
+import java.util.Locale;
+
+// formats table lines into a byte buffer and writes it out when it is full
+class TableWriter implements AutoCloseable {
+
+    private static final byte[] NEWLINE = System.lineSeparator().getBytes();
+    private static final Charset CHARSET = Charset.defaultCharset(); // same charset PrintStream uses for names
+    private static final boolean PLAIN_DIGITS = plainDigits(); // false if printf would use other decimal symbols
+
+    private final OutputStream out;
+    private final boolean closeOut;
+    private final byte[] buf = new byte[1 << 16];
+    private int pos;
+    private int[] ratings = new int[0];
+    private int columns; // ratings per row beyond the store's songs, e.g. the widest shard of a sharded table
+
+    // write to a stream which stays open
+    public TableWriter(OutputStream out) {
+        this(out, false);
+    }
+
+    private TableWriter(OutputStream out, boolean closeOut) {
+        this.out = out;
+        this.closeOut = closeOut;
+    }
+
+    // write to a file, replacing it
+    public static TableWriter toFile(File file) throws IOException {
+        return new TableWriter(new FileOutputStream(file), true);
+    }
+
+    // write to the standard output without going through System.out
+    public static TableWriter toStdout() {
+        return new TableWriter(new FileOutputStream(FileDescriptor.out), false);
+    }
+
+    // true if the default locale formats numbers with ascii digits and a '.' like the fast path below
+    private static boolean plainDigits() {
+        DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(Locale.getDefault(Locale.Category.FORMAT));
+        return symbols.getDecimalSeparator() == '.' && symbols.getZeroDigit() == '0';
+    }
+
+    // the whole PrintCustomerDistanceRatings answer: header, target line and one line per customer in name order
+    public void writeTable(CustomerStore store, int target, NameOrderedList list) {
+        writeHead(store, target);
+        list.forEach(id -> writeCustomer(store, id));
+        drain();
+    }
+
+    // the header and the target line, which start the table
+    public void writeHead(CustomerStore store, int target) {
+        ascii("PrintCustomerDistanceRatings");
+        newline();
+        spaces(6); // white space for distance
+        row(store, target);
+    }
+
+    // write at least n ratings per row, 0 for the songs after the store's last one
+    public void columns(int n) {
+        columns = n;
+    }
+
+    // one customer line without the target line or header
+    public void writeCustomer(CustomerStore store, int id) {
+        distance(store.distance(id));
+        row(store, id);
+    }
+
+    // name in 11 columns, the ratings and the line break
+    private void row(CustomerStore store, int id) {
+        String name = store.name(id);
+        if (!ascii(name)) {
+            byte[] bytes = name.getBytes(CHARSET);
+            write(bytes, 0, bytes.length);
+        }
+        spaces(11 - name.length());
+        int songCount = store.songCount();
+        int width = Math.max(songCount, columns);
+        if (ratings.length < width) ratings = new int[width];
+        store.copyRow(id, ratings);
+        Arrays.fill(ratings, songCount, width, 0);
+        for (int j = 0; j < width; j++) {
+            number(ratings[j]);
+            put((byte) ' ');
+        }
+        newline();
+    }
+
+    // left aligned distance with three decimal places in 6 columns, ----- when it cannot be calculated
+    private void distance(double d) {
+        if (d == -1) {
+            ascii("----- ");
+            return;
+        }
+        double scaled = d * 1000;
+        double frac = scaled - Math.floor(scaled);
+        // Formatter rounds the shortest decimal form of d half up; close to a tie, or out of long range,
+        // the binary value could round the other way, so those rare values go through String.format
+        if (!PLAIN_DIGITS || !(d >= 0 && scaled < 1e15) || Math.abs(frac - 0.5) < 1e-6) {
+            ascii(String.format("%-6.3f", d));
+            return;
+        }
+        long milli = (long) Math.floor(scaled + 0.5);
+        int start = pos;
+        number(milli / 1000);
+        put((byte) '.');
+        long decimals = milli % 1000;
+        put((byte) ('0' + decimals / 100));
+        put((byte) ('0' + decimals / 10 % 10));
+        put((byte) ('0' + decimals % 10));
+        spaces(6 - (pos - start));
+    }
+
+    // decimal digits of a number
+    private void number(long n) {
+        if (n < 0) {
+            put((byte) '-');
+            if (n == Long.MIN_VALUE) {
+                ascii("9223372036854775808");
+                return;
+            }
+            n = -n;
+        }
+        if (pos + 20 > buf.length) drain();
+        int digits = 1;
+        for (long t = n; t >= 10; t /= 10) digits++;
+        for (int i = pos + digits - 1; i >= pos; i--) {
+            buf[i] = (byte) ('0' + n % 10);
+            n /= 10;
+        }
+        pos += digits;
+    }
+
+    // copy a string made of ascii characters only; false without writing anything if it has other characters
+    private boolean ascii(String s) {
+        int n = s.length();
+        for (int i = 0; i < n; i++) {
+            if (s.charAt(i) >= 0x80) return false;
+        }
+        if (pos + n > buf.length) drain();
+        if (n > buf.length) {
+            byte[] bytes = s.getBytes(CHARSET);
+            write(bytes, 0, bytes.length);
+            return true;
+        }
+        for (int i = 0; i < n; i++) {
+            buf[pos++] = (byte) s.charAt(i);
+        }
+        return true;
+    }
+
+    private void spaces(int n) {
+        for (int i = 0; i < n; i++) put((byte) ' ');
+    }
+
+    private void newline() {
+        write(NEWLINE, 0, NEWLINE.length);
+    }
+
+    private void put(byte b) {
+        if (pos == buf.length) drain();
+        buf[pos++] = b;
+    }
+
+    private void write(byte[] bytes, int off, int len) {
+        if (pos + len > buf.length) drain();
+        if (len > buf.length) {
+            writeOut(bytes, off, len);
+        } else {
+            System.arraycopy(bytes, off, buf, pos, len);
+            pos += len;
+        }
+    }
+
+    // hand the buffered bytes to the stream
+    private void drain() {
+        writeOut(buf, 0, pos);
+        pos = 0;
+    }
+
+    // hand the buffered bytes to the stream and flush it
+    public void flush() {
+        drain();
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeOut(byte[] bytes, int off, int len) {
+        try {
+            out.write(bytes, off, len);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+        if (closeOut) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/**
+ * Description of this file : RecommendSongs aggregated over the K nearest customers instead of the single nearest one.
+ * The K nearest measurable customers are read from the heap best-first without removing anybody. Every song one of
+ * them rated >= 4 and the target did not rate scores rating / distance per customer, and a bounded heap keeps the
+ * N best songs, so one answer costs O(K log K + K * songs rated * log N) and never scans the whole store.
+ */
+
+import java.util.HashMap;
+
+// RecommendSongs answer from the K nearest customers, the N best songs with their scores
+class TopKRecommender {
+
+    private final CustomerStore store;
+    private final int k; // neighbours aggregated
+    private final int n; // songs answered
+
+    public TopKRecommender(CustomerStore store, int k, int n) {
+        this.store = store;
+        this.k = k;
+        this.n = n;
+    }
+
+    // answer for the target of the heap; the heap is only read, so several threads may ask at once
+    public String recommend(MinHeap heap, int target) {
+        int[] ids = new int[k];
+        double[] distances = new double[k];
+        int[] count = new int[1];
+        heap.findFirst(id -> { // best-first walk that stops at the k-th customer
+            ids[count[0]] = id;
+            distances[count[0]] = store.distance(id);
+            return ++count[0] == k;
+        });
+        return answer(target, ids, distances, count[0]);
+    }
+
+    // answer for any customer from its cached neighbour list
+    public String recommend(NeighbourCache neighbours, int target) {
+        synchronized (neighbours) { // the cache changes its lists in place when customers are added
+            Neighbours nearest = neighbours.nearest(target, k);
+            return answer(target, nearest.ids, nearest.distances, Math.min(nearest.size, k));
+        }
+    }
+
+    // "RecommendSongs songN score songM score ..." best song first, or "RecommendSongs none"
+    private String answer(int target, int[] ids, double[] distances, int count) {
+        HashMap<Integer, Double> scores = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            double weight = 1 / distances[i]; // measurable distances are above 0
+            store.forEachLikedUnrated(target, ids[i], (song, rating) -> scores.merge(song, rating * weight, Double::sum));
+        }
+        TopSongs top = new TopSongs(n);
+        scores.forEach(top::offer);
+        if (top.size == 0) return "RecommendSongs none";
+        top.sort();
+        StringBuilder sb = new StringBuilder("RecommendSongs");
+        for (int i = 0; i < top.size; i++) {
+            sb.append(" song").append(top.songs[i] + 1).append(' ').append(String.format("%.3f", top.scores[i]));
+        }
+        return sb.toString();
+    }
+
+    // heap of at most n songs with the worst one at the root; a lower song number wins a tie
+    private static class TopSongs {
+        final int[] songs;
+        final double[] scores;
+        int size;
+
+        TopSongs(int n) {
+            songs = new int[n];
+            scores = new double[n];
+        }
+
+        // keep the song if it is among the n best so far
+        void offer(int song, double score) {
+            if (size < songs.length) {
+                songs[size] = song;
+                scores[size] = score;
+                upHeap(size++);
+            } else if (below(0, song, score)) {
+                songs[0] = song;
+                scores[0] = score;
+                downHeap(0, size);
+            }
+        }
+
+        // heap sort, best song first
+        void sort() {
+            for (int end = size - 1; end > 0; end--) {
+                swap(0, end); // the worst song left goes to the back
+                downHeap(0, end);
+            }
+        }
+
+        // true if the song at i ranks below (song, score)
+        private boolean below(int i, int song, double score) {
+            return scores[i] < score || (scores[i] == score && songs[i] > song);
+        }
+
+        private void upHeap(int i) {
+            while (i > 0 && below(i, songs[(i - 1) / 2], scores[(i - 1) / 2])) {
+                swap(i, (i - 1) / 2);
+                i = (i - 1) / 2;
+            }
+        }
+
+        private void downHeap(int i, int end) {
+            while (2 * i + 1 < end) {
+                int c = 2 * i + 1; // the lower ranked child
+                if (c + 1 < end && below(c + 1, songs[c], scores[c])) c++;
+                if (!below(c, songs[i], scores[i])) break;
+                swap(i, c);
+                i = c;
+            }
+        }
+
+        private void swap(int i, int j) {
+            int s = songs[i]; songs[i] = songs[j]; songs[j] = s;
+            double t = scores[i]; scores[i] = scores[j]; scores[j] = t;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * Description of this file : tests of the change log behind --log: replay after a crash, a torn last record and
+ * restarts from a checkpoint snapshot.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+class ActionLogTest {
+
+    static final String[] RATINGS = {"T", "T 1 2 3 0 5", "A 3 2 1 0 0", "B 0 4 5 1 2", "A 1 1 1 1 1", "C 0 0 0 4 4",
+            "D 5 0 0 2 1", "E 2 2 2 2 2", "F 0 1 0 1 0"};
+    static final int CRASH = 23; // actions answered before the crash
+
+    public static void main(String[] args) throws Exception {
+        for (String layout : new String[]{"--scalar", "--sparse"}) {
+            String[] actions = actions();
+            List<String> answers = answers(actions, layout);
+            for (int torn : new int[]{0, 1, 5, 13}) {
+                resumeAfterACrash(actions, answers, torn, layout);
+            }
+            resumeFromACheckpoint(actions, answers, layout);
+        }
+        System.out.println("ActionLogTest ok");
+    }
+
+    // a run stops after CRASH actions without syncing its last group, and a write is torn; a new run from the
+    // ratings file cuts the torn bytes off, replays the log and answers from there exactly like one run
+    static void resumeAfterACrash(String[] actions, List<String> answers, int torn, String layout) throws Exception {
+        File dir = Files.createTempDirectory("test").toFile();
+        dir.deleteOnExit();
+        File log = new File(dir, "changes.log");
+        log.deleteOnExit();
+        String[] options = {layout, "--log=" + log, "--log-sync=3"};
+        Session first = load(options);
+        replay(first);
+        answer(first, Arrays.copyOf(actions, CRASH), true);
+        long synced = log.length();
+        Check.that(synced > 0, "records synced before the crash with " + layout);
+        try (RandomAccessFile file = new RandomAccessFile(log, "rw")) {
+            if (torn > 8) { // the start of a record
+                file.seek(synced);
+                file.write(new byte[]{0, 0, 0, 40, 1, 0, 0});
+            } else {
+                file.setLength(synced - torn);
+            }
+        }
+
+        Session second = load(options);
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        PrintStream err = System.err;
+        System.setErr(new PrintStream(errors, true, "UTF-8"));
+        long replayed;
+        try {
+            replayed = replay(second);
+        } finally {
+            System.setErr(err);
+        }
+        String what = layout + " and " + torn + " torn bytes";
+        Check.that(replayed > 0 && replayed <= CRASH, "actions replayed with " + what + ": " + replayed);
+        long kept = log.length();
+        if (torn == 0 || torn > 8) Check.equal(synced, kept, "log after the replay with " + what);
+        else Check.that(kept < synced - torn, "torn record cut off with " + what);
+        String dropped = torn == 0 ? "" : "changes.log: dropped " + (torn > 8 ? 7 : synced - torn - kept)
+                + " bytes of an incomplete record" + System.lineSeparator();
+        Check.equal(dropped, new String(errors.toByteArray(), StandardCharsets.UTF_8), "errors with " + what);
+        String resumed = answer(second, actions, false);
+        Check.equal(String.join("", answers.subList((int) replayed, answers.size())), resumed, "answers with " + what);
+    }
+
+    // with a checkpoint every 4 changes the log only holds the changes after the last snapshot; a restart reads
+    // the snapshot, replays them and goes on like one run
+    static void resumeFromACheckpoint(String[] actions, List<String> answers, String layout) throws Exception {
+        File dir = Files.createTempDirectory("test").toFile();
+        dir.deleteOnExit();
+        File log = new File(dir, "changes.log");
+        File snapshot = new File(dir, "run.snapshot");
+        log.deleteOnExit();
+        snapshot.deleteOnExit();
+        String[] options = {layout, "--log=" + log, "--log-sync=2", "--snapshot=" + snapshot, "--checkpoint-every=5"};
+        Session first = load(options);
+        replay(first);
+        answer(first, Arrays.copyOf(actions, CRASH), true);
+        Check.that(snapshot.exists(), "checkpoint written with " + layout);
+
+        Session second = RecommendationSystem.restore(Options.parse(options, 0), MinHeap::new);
+        long checkpoint = second.actionsDone;
+        Check.that(checkpoint > 0, "actions in the checkpoint with " + layout);
+        long replayed = replay(second);
+        Check.that(replayed > checkpoint && replayed <= CRASH, "actions replayed with " + layout + ": " + replayed);
+        String resumed = answer(second, actions, false);
+        Check.equal(String.join("", answers.subList((int) replayed, answers.size())), resumed,
+                "answers after the checkpoint with " + layout);
+    }
+
+    static Session load(String... options) throws IOException {
+        return RecommendationSystem.load(Check.file("ratings.txt", RATINGS), Options.parse(options, 0));
+    }
+
+    // open the log of the session, replaying its records; the number of actions the session holds then
+    static long replay(Session session) throws IOException {
+        session.log = ActionLog.open(new File(session.options.log), session);
+        return session.actionsDone;
+    }
+
+    // answer the actions after the ones the session holds, like RecommendationSystem.runActions. a crash leaves
+    // the records since the last sync unwritten and writes no snapshot at the end
+    static String answer(Session session, String[] actions, boolean crash) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        session.out = new PrintStream(bytes, true, "UTF-8");
+        try (ActionReader reader = new ActionReader(Check.file("actions.txt", actions))) {
+            reader.skip(session.actionsDone);
+            Action action = new Action();
+            while (reader.next(action)) {
+                RecommendationSystem.runAction(action, session);
+                RecommendationSystem.answered(session, 1);
+            }
+        }
+        if (!crash) session.log.sync(session.actionsDone);
+        session.log.close();
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    // answer of one run to each action, without a log
+    static List<String> answers(String[] actions, String layout) throws IOException {
+        Session session = RecommendationSystem.load(Check.file("ratings.txt", RATINGS), Options.parse(new String[]{layout}, 0));
+        List<String> answers = new ArrayList<>();
+        try (ActionReader reader = new ActionReader(Check.file("actions.txt", actions))) {
+            Action action = new Action();
+            while (reader.next(action)) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                RecommendationSystem.runAction(action, session, new PrintStream(bytes, true, "UTF-8"));
+                answers.add(new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+            }
+        }
+        return answers;
+    }
+
+    // every kind of change between reads, so the answers show any change the replay missed or repeated
+    static String[] actions() {
+        List<String> lines = new ArrayList<>();
+        String[] names = {"A", "B", "C", "D", "E", "F"};
+        for (int i = 0; i < 8; i++) {
+            String name = names[i % names.length];
+            lines.add("AddCustomer N" + i + " " + (i % 5) + " " + (5 - i % 5) + " 0 " + (i % 3) + " 1");
+            lines.add("UpdateRating " + name + " " + (1 + i % 5) + " " + (i % 6));
+            lines.add("RecommendSongs");
+            if (i % 3 == 1) lines.add("RemoveCustomer " + names[(i + 2) % names.length]);
+            lines.add(i % 2 == 0 ? "PrintCustomerDistanceRatings" : "RecommendSongs " + name);
+        }
+        lines.add("PrintCustomerDistanceRatings");
+        return lines.toArray(new String[0]);
+    }
+}
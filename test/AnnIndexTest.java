@@ -0,0 +1,45 @@
+/**
+ * Description of this file : tests of the approximate nearest customer index.
+ */
+
+import java.util.Random;
+import java.util.TreeMap;
+
+class AnnIndexTest {
+
+    public static void main(String[] args) {
+        changedCustomersAreOnlyFoundThroughTheirNewBuckets();
+        System.out.println("AnnIndexTest ok");
+    }
+
+    // after some ratings change, every lookup finds what an index built on the new ratings finds
+    static void changedCustomersAreOnlyFoundThroughTheirNewBuckets() {
+        Random random = new Random(17);
+        CustomerStore store = CustomerStore.create(false);
+        for (int id = 0; id < 200; id++) {
+            RatingRow row = new RatingRow();
+            for (int song = 0; song < 20; song++) row.add(song, random.nextInt(4) == 0 ? 1 + random.nextInt(5) : 0);
+            store.add("c" + id, row);
+        }
+        AnnIndex index = store.enableAnnIndex(8, 2);
+        candidates(index, 0);
+        for (int n = 0; n < 30; n++) {
+            int id = random.nextInt(200);
+            for (int song = 0; song < 20; song++) {
+                store.setRating(id, song, random.nextInt(3) == 0 ? 1 + random.nextInt(5) : 0);
+            }
+        }
+        CustomerStore fresh = CustomerStore.create(false);
+        for (int id = 0; id < 200; id++) fresh.add("c" + id, store.readRow(id, new RatingRow()));
+        AnnIndex rebuilt = fresh.enableAnnIndex(8, 2);
+        for (int id = 0; id < 200; id++) {
+            Check.equal(candidates(rebuilt, id), candidates(index, id), "candidates of c" + id);
+        }
+    }
+
+    static TreeMap<Integer, Double> candidates(AnnIndex index, int target) {
+        TreeMap<Integer, Double> found = new TreeMap<>();
+        index.forEachCandidate(target, found::put);
+        return found;
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * Description of this file : tests of --batch, the windowed multi-threaded actions loop, against the one at a time loop.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+class BatchProcessorTest {
+
+    public static void main(String[] args) throws Exception {
+        String[][] runs = {
+                {"--batch=1"}, {"--batch=7"}, {"--batch=64"}, {"--batch=7", "--sparse"}, {"--batch=64", "--keep-heap"},
+                {"--batch=16", "--top-k=3"}, {"--batch=16", "--index", "--sparse"}};
+        for (String[] options : runs) {
+            sameAnswersAndLogAsOneAtATime(options);
+        }
+        sameMetricsAsOneAtATime("--batch=7");
+        sameMetricsAsOneAtATime("--batch=64", "--sparse");
+        System.out.println("BatchProcessorTest ok");
+    }
+
+    // runs of AddCustomer, read-only requests and changes answer the same bytes and log the same records
+    static void sameAnswersAndLogAsOneAtATime(String... options) throws Exception {
+        Random random = new Random(10);
+        List<String> names = new ArrayList<>();
+        String[] ratings = new String[161];
+        ratings[0] = "T";
+        for (int i = 1; i < ratings.length; i++) {
+            String name = i == 1 ? "T" : "C" + random.nextInt(120);
+            names.add(name);
+            ratings[i] = name + " " + row(random);
+        }
+        File actions = Check.file("actions.txt", actions(random, names));
+        String what = String.join(" ", options);
+        String[] sequential = run(ratings, actions, false, options);
+        String[] batched = run(ratings, actions, true, options);
+        Check.equal(sequential[0], batched[0], "answers with " + what);
+        Check.equal(sequential[1], batched[1], "log with " + what);
+        Check.that(sequential[0].contains(" song") && sequential[1].length() > 0, "answers and changes with " + what);
+    }
+
+    // with --metrics a run of AddCustomer records a customer added and a distance calculated per customer, like
+    // the one at a time loop
+    static void sameMetricsAsOneAtATime(String... options) throws Exception {
+        Random random = new Random(21);
+        List<String> names = new ArrayList<>();
+        String[] ratings = new String[81];
+        ratings[0] = "T";
+        for (int i = 1; i < ratings.length; i++) {
+            String name = i == 1 ? "T" : "C" + random.nextInt(60);
+            names.add(name);
+            ratings[i] = name + " " + row(random);
+        }
+        File actions = Check.file("actions.txt", actions(random, names));
+        String what = String.join(" ", options);
+        Metrics.enabled = true;
+        try {
+            long[] before = counts();
+            run(ratings, actions, false, options);
+            long[] sequential = counts();
+            run(ratings, actions, true, options);
+            long[] batched = counts();
+            for (int i = 0; i < before.length; i++) {
+                Check.equal(sequential[i] - before[i], batched[i] - sequential[i], "metric " + i + " with " + what);
+            }
+            Check.that(sequential[0] > before[0], "customers added with " + what);
+        } finally {
+            Metrics.enabled = false;
+        }
+    }
+
+    static long[] counts() {
+        return new long[]{Metrics.ADD_CUSTOMER.count(), Metrics.CALCULATE.count(), Metrics.MEASURABLE.get(),
+                Metrics.UNMEASURABLE.get()};
+    }
+
+    // answers and log of the actions, run like RecommendationSystem.runActions but writing the answers to a buffer.
+    // the log is only forced at the end: --batch counts a whole run of AddCustomer as answered at once, so a
+    // progress record written every --log-sync changes lands after that run instead of inside it
+    static String[] run(String[] ratings, File actions, boolean batch, String... options) throws IOException {
+        String[] all = Arrays.copyOf(options, options.length + 1);
+        all[options.length] = "--log-sync=1000000";
+        Options parsed = Options.parse(all, 0);
+        Session session = RecommendationSystem.load(Check.file("ratings.txt", ratings), parsed);
+        File dir = Files.createTempDirectory("test").toFile();
+        dir.deleteOnExit();
+        File log = new File(dir, "changes.log");
+        log.deleteOnExit();
+        session.log = ActionLog.open(log, session);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        session.out = new PrintStream(bytes, false, "UTF-8");
+        if (batch) {
+            new BatchProcessor(session, parsed.pool(), parsed.batch).run(actions);
+        } else {
+            try (ActionReader reader = new ActionReader(actions)) {
+                Action action = new Action();
+                while (reader.next(action)) {
+                    RecommendationSystem.runAction(action, session);
+                    RecommendationSystem.answered(session, 1);
+                }
+            }
+            session.out.flush();
+        }
+        session.log.sync(session.actionsDone);
+        session.log.close();
+        return new String[]{new String(bytes.toByteArray(), StandardCharsets.UTF_8),
+                Arrays.toString(Files.readAllBytes(log.toPath()))};
+    }
+
+    // a random mix of requests, AddCustomer coming in runs
+    static String[] actions(Random random, List<String> names) {
+        List<String> lines = new ArrayList<>();
+        while (lines.size() < 400) {
+            String name = names.get(random.nextInt(names.size()));
+            switch (random.nextInt(8)) {
+                case 0:
+                case 1:
+                    for (int i = random.nextInt(12); i >= 0; i--) {
+                        String added = "N" + random.nextInt(200);
+                        names.add(added);
+                        lines.add("AddCustomer " + added + " " + row(random));
+                    }
+                    break;
+                case 2:
+                    lines.add("RecommendSongs");
+                    break;
+                case 3:
+                    lines.add("RecommendSongs " + (random.nextInt(10) == 0 ? "nobody" : name));
+                    break;
+                case 4:
+                    lines.add("PrintCustomerDistanceRatings");
+                    break;
+                case 5:
+                    lines.add("UpdateRating " + name + " song" + (1 + random.nextInt(10)) + " " + random.nextInt(6));
+                    break;
+                case 6:
+                    lines.add("RemoveCustomer " + name);
+                    break;
+                default:
+                    lines.add(random.nextBoolean() ? "Hello" : "");
+            }
+        }
+        lines.add("PrintCustomerDistanceRatings");
+        return lines.toArray(new String[0]);
+    }
+
+    // ten positional ratings, most of them 0
+    static String row(Random random) {
+        StringBuilder row = new StringBuilder();
+        for (int song = 0; song < 10; song++) {
+            row.append(song == 0 ? "" : " ").append(random.nextInt(3) == 0 ? 1 + random.nextInt(5) : 0);
+        }
+        return row.toString();
+    }
+}
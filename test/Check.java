@@ -0,0 +1,51 @@
+/**
+ * Description of this file : the few assertions the tests share, and temporary input files for them.
+ * A failed check throws an AssertionError, which ends the test run with its message.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Objects;
+
+class Check {
+
+    // code that may throw any exception
+    interface Code {
+        void run() throws Exception;
+    }
+
+    static void equal(Object expected, Object actual, String what) {
+        if (!Objects.equals(expected, actual)) {
+            throw new AssertionError(what + ": expected <" + expected + "> but was <" + actual + ">");
+        }
+    }
+
+    static void that(boolean condition, String what) {
+        if (!condition) throw new AssertionError(what);
+    }
+
+    // run code that must throw an IllegalArgumentException with exactly this message
+    static void fails(String message, Code code) {
+        try {
+            code.run();
+        } catch (IllegalArgumentException e) {
+            equal(message, e.getMessage(), "error");
+            return;
+        } catch (Exception e) {
+            throw new AssertionError("expected an IllegalArgumentException \"" + message + "\" but got " + e, e);
+        }
+        throw new AssertionError("expected an IllegalArgumentException \"" + message + "\"");
+    }
+
+    // file with the given lines in a new temporary directory, deleted when the test ends
+    static File file(String name, String... lines) throws IOException {
+        File dir = Files.createTempDirectory("test").toFile();
+        dir.deleteOnExit();
+        File file = new File(dir, name);
+        file.deleteOnExit();
+        Files.write(file.toPath(), (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
@@ -0,0 +1,168 @@
+/**
+ * Description of this file : tests of CustomerStore in both layouts and of loading ratings files into it.
+ */
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+
+class CustomerStoreTest {
+
+    public static void main(String[] args) throws Exception {
+        for (boolean sparse : new boolean[]{false, true}) {
+            ratingsTheStoreCannotHoldAreRejected(sparse);
+            largestRatingIsKeptExactly(sparse);
+            songsRatedTwiceAreRejected(sparse);
+        }
+        denseRowsMustCoverTheCatalog();
+        sparseRowsMayHaveAnyWidth();
+        for (int songs : new int[]{1, 7, 8, 9, 64, 65}) {
+            wordKernelMatchesTheScalarLoop(songs);
+        }
+        System.out.println("CustomerStoreTest ok");
+    }
+
+    // a rating above a byte is a file:line error instead of a wrapped value
+    static void ratingsTheStoreCannotHoldAreRejected(boolean sparse) throws Exception {
+        for (String line : new String[]{"A 1 2 300", "A 1 2 128", "A 1:1 3:255"}) {
+            File ratings = Check.file("ratings.txt", "T", "T 1 2 3", line);
+            String value = line.substring(line.lastIndexOf(line.contains(":") ? ':' : ' ') + 1);
+            Check.fails("ratings.txt:3: rating must be between 0 and 127 but was " + value,
+                    () -> RecommendationSystem.loadRatings(ratings, CustomerStore.create(sparse), new IdList()));
+        }
+        CustomerStore store = store(sparse, 1, 2, 3);
+        Check.fails("rating must be between 0 and 127 but was 200", () -> store.setRating(0, 1, 200));
+        Check.fails("rating must be between 0 and 127 but was -1", () -> store.setRating(0, 1, -1));
+        Check.equal(2, store.rating(0, 1), "rating after a rejected change");
+        Check.fails("rating must be between 0 and 127 but was 256", () -> store.add("B", new RatingRow().parse(new String[]{"1", "256", "0"}, 0)));
+        Check.equal(1, store.size(), "customers after a rejected add");
+    }
+
+    static void largestRatingIsKeptExactly(boolean sparse) throws Exception {
+        IdList customers = new IdList();
+        CustomerStore store = CustomerStore.create(sparse);
+        RecommendationSystem.loadRatings(Check.file("ratings.txt", "T", "T 1 2 3", "A 127 0 1"), store, customers);
+        Check.equal(127, store.rating(1, 0), "rating of A");
+        Check.equal(1.0 / 2 + (126 + 2) / 2.0, store.calculate(0, 1), "distance of A");
+        store.setRating(1, 1, 127);
+        Check.equal(127, store.rating(1, 1), "rating of A after the change");
+    }
+
+    // a line rating one song twice is a file:line error, whether the ratings are positional, pairs or both
+    static void songsRatedTwiceAreRejected(boolean sparse) throws Exception {
+        String[][] lines = {{"A 1:3 1:5", "1"}, {"A 5 1:3 3:1", "1"}, {"A 3:0 1:1 3:4", "3"}, {"A 2:1 1 2 3", "2"}};
+        for (String[] line : lines) {
+            File ratings = Check.file("ratings.txt", "T", "T 1 2 3", line[0]);
+            Check.fails("ratings.txt:3: song" + line[1] + " is rated more than once",
+                    () -> RecommendationSystem.loadRatings(ratings, CustomerStore.create(sparse), new IdList()));
+            String[] tokens = line[0].split(" ");
+            Check.fails("song" + line[1] + " is rated more than once", () -> new RatingRow().parse(tokens, 1));
+        }
+        CustomerStore store = CustomerStore.create(sparse);
+        RecommendationSystem.loadRatings(Check.file("ratings.txt", "T", "T 1 2 3", "A 3:4 1:2 2:0"), store, new IdList());
+        Check.equal(4, store.rating(1, 2), "rating of A");
+        Check.equal(1.0 / 2 + (1 + 1) / 2.0, store.calculate(0, 1), "distance of A");
+    }
+
+    // a positional row shorter or longer than the first one is a file:line error; pairs may stop early
+    static void denseRowsMustCoverTheCatalog() throws Exception {
+        File shorter = Check.file("ratings.txt", "T", "T 1 2 3", "B 1 2");
+        Check.fails("ratings.txt:3: no rating for song3 of the catalog of 3 songs",
+                () -> RecommendationSystem.loadRatings(shorter, CustomerStore.create(false), new IdList()));
+        File longer = Check.file("ratings.txt", "T", "T 1 2 3", "B 1 2 3 4");
+        Check.fails("ratings.txt:3: song4 is outside the catalog of 3 songs",
+                () -> RecommendationSystem.loadRatings(longer, CustomerStore.create(false), new IdList()));
+        CustomerStore store = CustomerStore.create(false);
+        RecommendationSystem.loadRatings(Check.file("ratings.txt", "T", "T 1 2 3", "B 1:4", "C 0 0 0"), store, new IdList());
+        Check.equal(3, store.size(), "customers");
+        Check.equal(4, store.rating(1, 0), "rating of B");
+        Check.fails("no rating for song2 of the catalog of 3 songs", () -> store.add("D", new RatingRow().parse(new String[]{"5"}, 0)));
+        Check.equal(3, store.size(), "customers after a rejected add");
+        String[] unrated = new String[23]; // customers without ratings take more ids than the first columns hold
+        unrated[0] = "T";
+        for (int i = 1; i <= 20; i++) unrated[i] = "E" + i;
+        unrated[21] = "T 1 2 3";
+        unrated[22] = "A 3 2 1";
+        CustomerStore late = CustomerStore.create(false);
+        RecommendationSystem.loadRatings(Check.file("ratings.txt", unrated), late, new IdList());
+        Check.equal(3, late.songCount(), "songs after unrated customers");
+        Check.equal(2, late.rating(21, 1), "rating of A after unrated customers");
+        Check.equal(1.0 / 3 + 4 / 3.0, late.calculate(20, 21), "distance of A after unrated customers");
+        File huge = Check.file("ratings.txt", "T", "T 999999999:5");
+        CustomerStore rejected = CustomerStore.create(false);
+        Check.fails("ratings.txt:2: a catalog of 999999999 songs for 16 customers is more than the 2147483639 ratings one array holds",
+                () -> RecommendationSystem.loadRatings(huge, rejected, new IdList()));
+        Check.equal(0, rejected.size(), "customers after a catalog too large");
+        rejected.add("T", new RatingRow().parse(new String[]{"1", "2", "3"}, 0));
+        Check.equal(3, rejected.songCount(), "songs of a row after a catalog too large");
+    }
+
+    static void sparseRowsMayHaveAnyWidth() throws Exception {
+        CustomerStore store = CustomerStore.create(true);
+        RecommendationSystem.loadRatings(Check.file("ratings.txt", "T", "T 1 2 3", "B 1 2", "C 1 2 3 4"), store, new IdList());
+        Check.equal(4, store.songCount(), "songs");
+        Check.equal(0, store.rating(1, 2), "missing rating of B");
+    }
+
+    // calculate and calculateRange give the distances of calculateScalar bit for bit, for catalogs ending inside or
+    // on a word, while the ratings fit the 5 bit lanes, once one no longer does and after a snapshot of either
+    static void wordKernelMatchesTheScalarLoop(int songs) throws Exception {
+        Random random = new Random(18 + songs);
+        int[] values = {0, 0, 1, 2, 3, 4, 5, 31};
+        DenseCustomerStore store = (DenseCustomerStore) CustomerStore.create(false);
+        RatingRow row = new RatingRow();
+        for (int id = 0; id < 40; id++) {
+            row.clear();
+            for (int song = 0; song < songs; song++) row.add(song, values[random.nextInt(values.length)]);
+            store.add("C" + id, row);
+        }
+        sameDistances(store, songs + " songs");
+        for (int i = 0; i < 200; i++) { // ratings set, changed and taken back to 0
+            store.setRating(random.nextInt(store.size()), random.nextInt(songs), values[random.nextInt(values.length)]);
+        }
+        sameDistances(store, songs + " songs after setRating");
+        sameDistances(reread(store), songs + " songs after a snapshot");
+        for (int value : new int[]{32, 127}) {
+            for (int i = 0; i < 20; i++) store.setRating(random.nextInt(store.size()), random.nextInt(songs), value);
+            sameDistances(store, songs + " songs after setRating " + value);
+            sameDistances(reread(store), songs + " songs after setRating " + value + " and a snapshot");
+        }
+    }
+
+    static void sameDistances(DenseCustomerStore store, String what) {
+        double[] range = new double[store.size()];
+        for (int target = 0; target < store.size(); target++) {
+            int from = target % 3;
+            store.calculateRange(target, from, store.size(), range);
+            for (int other = 0; other < store.size(); other++) {
+                double expected = store.calculateScalar(target, other);
+                Check.equal(expected, store.calculate(target, other), "distance " + target + " to " + other + " with " + what);
+                if (other >= from) {
+                    Check.equal(expected, range[other - from], "range distance " + target + " to " + other + " with " + what);
+                }
+            }
+        }
+    }
+
+    // the store as a snapshot gives it back
+    static DenseCustomerStore reread(CustomerStore store) throws Exception {
+        File file = new File(Files.createTempDirectory("test").toFile(), "store.snapshot");
+        file.deleteOnExit();
+        try (SnapshotWriter out = new SnapshotWriter(file.toPath())) {
+            store.writeTo(out);
+            out.finish();
+        }
+        try (SnapshotReader in = new SnapshotReader(file)) {
+            return (DenseCustomerStore) CustomerStore.readFrom(in, Snapshot.VERSION);
+        }
+    }
+
+    // store with one customer A of the given ratings
+    static CustomerStore store(boolean sparse, int... ratings) {
+        CustomerStore store = CustomerStore.create(sparse);
+        RatingRow row = new RatingRow();
+        for (int song = 0; song < ratings.length; song++) row.add(song, ratings[song]);
+        store.add("A", row);
+        return store;
+    }
+}
@@ -0,0 +1,57 @@
+/**
+ * Description of this file : tests of the bottom up heap construction of MinHeap2, sequential and on a pool.
+ */
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+class MinHeap2Test {
+
+    public static void main(String[] args) throws Exception {
+        for (int size : new int[]{0, 1, 100, (1 << 15) - 1, 1 << 15, 70001}) {
+            poolBuildsTheSameArray(size);
+        }
+        System.out.println("MinHeap2Test ok");
+    }
+
+    // buildHeap(pool) leaves the very same array as buildHeap(), ties on name and distance included, for pools
+    // whose split level gives one, a few and an odd number of subtrees
+    static void poolBuildsTheSameArray(int size) {
+        CustomerStore store = store(size);
+        int[] ids = new int[size];
+        for (int id = 0; id < size; id++) ids[id] = id;
+        MinHeap2 sequential = new MinHeap2(store);
+        sequential.addElements(ids);
+        sequential.buildHeap();
+        int[] expected = sequential.toArray();
+        for (int i = 1; i < size; i++) {
+            Check.that(store.compare(expected[(i - 1) / 2], expected[i]) <= 0, "heap order at " + i + " of " + size);
+        }
+        for (int parallelism : new int[]{1, 3, 8}) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                MinHeap2 parallel = new MinHeap2(store);
+                parallel.addElements(ids);
+                parallel.buildHeap(pool);
+                Check.that(Arrays.equals(expected, parallel.toArray()),
+                        "heap array of " + size + " customers on a pool of " + parallelism);
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    // size customers with few distinct names and distances, so many of them tie
+    static CustomerStore store(int size) {
+        Random random = new Random(size);
+        CustomerStore store = CustomerStore.create(false);
+        RatingRow row = new RatingRow();
+        row.add(0, 1);
+        for (int id = 0; id < size; id++) {
+            store.add("C" + random.nextInt(50), row);
+            store.setDistance(id, random.nextInt(20) / 4.0);
+        }
+        return store;
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Description of this file : tests of the position tracking MinHeap behind UpdateRating and RemoveCustomer.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+class MinHeapTest {
+
+    public static void main(String[] args) throws Exception {
+        randomChangesKeepTheHeapAndPositions();
+        changesDropTheCachedAnswer();
+        System.out.println("MinHeapTest ok");
+    }
+
+    // after any mix of insert, update, remove and removeMin the heap holds exactly the customers it should, in
+    // heap order, contains agrees, and a customer taken out by id is that customer and nobody else
+    static void randomChangesKeepTheHeapAndPositions() {
+        Random random = new Random(15);
+        CustomerStore store = store(600, random);
+        MinHeap heap = new MinHeap(store);
+        List<Integer> in = new ArrayList<>(); // customers the heap should hold
+        for (int step = 0; step < 5000; step++) {
+            int id = random.nextInt(store.size());
+            int what = random.nextInt(10);
+            if (!heap.contains(id) && what < 4) {
+                heap.insert(id);
+                in.add(id);
+            } else if (heap.contains(id) && what < 7) { // the distance moves either way, ties included
+                store.setDistance(id, random.nextInt(40) / 8.0);
+                heap.update(id);
+            } else if (heap.contains(id) && what < 9) {
+                heap.remove(id);
+                in.remove(Integer.valueOf(id));
+            } else if (what == 9) {
+                int min = heap.removeMin();
+                if (min != -1) {
+                    for (int other : in) Check.that(store.compare(min, other) <= 0, "removeMin gave the smallest at " + step);
+                    in.remove(Integer.valueOf(min));
+                }
+            }
+            if (step % 50 == 0) check(store, heap, in, "step " + step);
+        }
+        check(store, heap, in, "the end");
+        int last = -1;
+        while (!heap.isEmpty()) { // drained in distance, then name order
+            int id = heap.removeMin();
+            if (last != -1) Check.that(store.compare(last, id) <= 0, "drain order");
+            Check.that(!heap.contains(id), "drained customer still in the heap");
+            last = id;
+        }
+        Check.equal(-1, heap.removeMin(), "removeMin of an empty heap");
+    }
+
+    // update and remove are changes: a cached RecommendSongs answer is not served after either
+    static void changesDropTheCachedAnswer() {
+        CustomerStore store = store(10, new Random(16));
+        MinHeap heap = new MinHeap(store);
+        for (int id = 1; id < 10; id++) heap.insert(id);
+        heap.cacheAnswer(0, "answer");
+        Check.equal("answer", heap.cachedAnswer(0), "cached answer");
+        Check.equal(null, heap.cachedAnswer(1), "answer cached for another target");
+        heap.update(4);
+        Check.equal(null, heap.cachedAnswer(0), "answer after an update");
+        heap.cacheAnswer(0, "answer");
+        heap.remove(7);
+        Check.equal(null, heap.cachedAnswer(0), "answer after a remove");
+    }
+
+    static void check(CustomerStore store, MinHeap heap, List<Integer> in, String when) {
+        int[] ids = heap.toArray();
+        Check.equal(in.size(), heap.size(), "size at " + when);
+        for (int i = 1; i < ids.length; i++) {
+            Check.that(store.compare(ids[(i - 1) / 2], ids[i]) <= 0, "heap order at index " + i + " at " + when);
+        }
+        int[] expected = in.stream().mapToInt(Integer::intValue).sorted().toArray();
+        int[] actual = ids.clone();
+        Arrays.sort(actual);
+        Check.that(Arrays.equals(expected, actual), "customers in the heap at " + when);
+        for (int id = 0; id < store.size(); id++) {
+            Check.equal(in.contains(id), heap.contains(id), "contains " + id + " at " + when);
+        }
+    }
+
+    // customers with few distinct names and distances, so many of them tie
+    static CustomerStore store(int size, Random random) {
+        CustomerStore store = CustomerStore.create(false);
+        RatingRow row = new RatingRow();
+        row.add(0, 1);
+        for (int id = 0; id < size; id++) {
+            store.add("C" + random.nextInt(40), row);
+            store.setDistance(id, random.nextInt(40) / 8.0);
+        }
+        return store;
+    }
+}
@@ -0,0 +1,68 @@
+/**
+ * Description of this file : tests of the chunked name ordered customer list behind PrintCustomerDistanceRatings.
+ */
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+class NameOrderedListTest {
+
+    public static void main(String[] args) throws Exception {
+        addsAndRemovesKeepNameThenAddOrder();
+        System.out.println("NameOrderedListTest ok");
+    }
+
+    // after single inserts that split full chunks, batches large enough to be merged and removals, the list
+    // visits the customers by name, customers of the same name in the order they were added
+    static void addsAndRemovesKeepNameThenAddOrder() {
+        Random random = new Random(6);
+        CustomerStore store = CustomerStore.create(false);
+        List<Integer> live = new ArrayList<>();
+        IdList loaded = new IdList();
+        for (int i = 0; i < 3000; i++) loaded.add(add(store, "C" + random.nextInt(300), live));
+        loaded.sort(store::compareName);
+        NameOrderedList list = new NameOrderedList(store, loaded);
+        check(store, list, live, "built");
+        for (int i = 0; i < 400; i++) { // one name inserted one at a time fills and splits its chunks
+            list.add(add(store, "C150", live));
+            list.flush();
+        }
+        check(store, list, live, "after the splits");
+        for (int round = 0; round < 40; round++) {
+            // up to 5 adds take the insert path on 3000 customers, a few thousand the merge path
+            int adds = round % 10 == 9 ? 2000 + random.nextInt(2000) : random.nextInt(6);
+            for (int i = 0; i < adds; i++) list.add(add(store, "C" + random.nextInt(300), live));
+            if (round % 3 == 0) check(store, list, live, "after round " + round);
+            for (int i = random.nextInt(4); i > 0 && !live.isEmpty(); i--) {
+                int id = live.remove(random.nextInt(live.size()));
+                list.remove(id);
+            }
+            check(store, list, live, "after the removals of round " + round);
+        }
+        for (int id : new ArrayList<>(live)) {
+            list.remove(id);
+            live.remove(Integer.valueOf(id));
+        }
+        check(store, list, live, "emptied");
+    }
+
+    // a new customer; a few hundred names are used, so many customers share a name across chunk boundaries
+    static int add(CustomerStore store, String name, List<Integer> live) {
+        RatingRow row = new RatingRow();
+        row.add(0, 1);
+        int id = store.add(name, row);
+        live.add(id);
+        return id;
+    }
+
+    static void check(CustomerStore store, NameOrderedList list, List<Integer> live, String when) {
+        List<Integer> expected = new ArrayList<>(live);
+        expected.sort(Comparator.<Integer, String>comparing(id -> store.name(id)).thenComparing(id -> id));
+        List<Integer> actual = new ArrayList<>();
+        list.forEach(actual::add);
+        Check.equal(expected, actual, "customers in name order when " + when);
+        Check.equal(expected.size(), list.size(), "size when " + when);
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * Description of this file : tests of the neighbour lists behind RecommendSongs <name>.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+class NeighbourCacheTest {
+
+    public static void main(String[] args) throws Exception {
+        for (boolean sparse : new boolean[]{false, true}) {
+            sameNameAndDistanceGoesToTheOlderCustomer(sparse);
+        }
+        for (String[] options : new String[][]{{}, {"--index"}, {"--batch=4"}, {"--sparse"}, {"--neighbours=1"}}) {
+            fullListSeesALaterCustomer(options);
+        }
+        System.out.println("NeighbourCacheTest ok");
+    }
+
+    // the two A's are as far from Q; the song index offers the newer one first, the scan the older one
+    static void sameNameAndDistanceGoesToTheOlderCustomer(boolean sparse) throws Exception {
+        String[] lines = {"T", "T 3 3 0 0", "A 0 3 0 5", "A 3 0 5 0", "Q 3 3 0 0"};
+        for (boolean index : new boolean[]{false, true}) {
+            CustomerStore store = CustomerStore.create(sparse);
+            RecommendationSystem.loadRatings(Check.file("ratings.txt", lines), store, new IdList());
+            if (index) store.enableSongIndex();
+            NeighbourCache cache = new NeighbourCache(store, 32, 1 << 20);
+            int q = store.idOf("Q");
+            Check.equal("RecommendSongs A song4 5 ", cache.recommend(q), "answer with index " + index);
+            Neighbours n = cache.nearest(q, 32);
+            Check.equal(3, n.size, "neighbours with index " + index);
+            Check.equal(1, n.ids[1], "second neighbour with index " + index);
+            Check.equal(2, n.ids[2], "third neighbour with index " + index);
+        }
+    }
+
+    // A's cached list is full of B's without a song to recommend; the farther C added later is left out of it, so
+    // the list no longer holds everybody and the next question looks further, like a run that starts with C
+    static void fullListSeesALaterCustomer(String... options) throws Exception {
+        List<String> ratings = new ArrayList<>(List.of("T", "T 1 0 0", "A 0 3 0"));
+        int others = options.length > 0 && options[0].equals("--neighbours=1") ? 1 : 32;
+        for (int i = 1; i <= others; i++) ratings.add("B" + i + " 0 3 0");
+        String[] lines = ratings.toArray(new String[0]);
+        String what = String.join(" ", options);
+        String answers = run(lines, options, "RecommendSongs A", "AddCustomer C 0 5 5", "RecommendSongs A");
+        Check.equal("RecommendSongs none\nAddCustomer C 0 5 5\nRecommendSongs C song3 5 \n", answers, "answers with " + what);
+        ratings.add("C 0 5 5");
+        Check.equal("RecommendSongs C song3 5 \n", run(ratings.toArray(new String[0]), options, "RecommendSongs A"),
+                "answer of a run starting with C with " + what);
+    }
+
+    // answers of the actions on a session loaded with the options, by --batch when it is given
+    static String run(String[] ratings, String[] options, String... actions) throws Exception {
+        Options parsed = Options.parse(options, 0);
+        Session session = RecommendationSystem.load(Check.file("ratings.txt", ratings), parsed);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        session.out = new PrintStream(bytes, false, "UTF-8");
+        File file = Check.file("actions.txt", actions);
+        if (parsed.batch > 0) {
+            new BatchProcessor(session, parsed.pool(), parsed.batch).run(file);
+        } else {
+            try (ActionReader reader = new ActionReader(file)) {
+                Action action = new Action();
+                while (reader.next(action)) RecommendationSystem.runAction(action, session);
+            }
+            session.out.flush();
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
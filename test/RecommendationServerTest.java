@@ -0,0 +1,112 @@
+/**
+ * Description of this file : tests of the HTTP endpoints of RecommendationServer, served on a free local port.
+ */
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+class RecommendationServerTest {
+
+    public static void main(String[] args) throws Exception {
+        for (String layout : new String[]{"--scalar", "--sparse"}) {
+            badLinesAddNobody(layout);
+            recommendAfterAnAddSeesIt(layout);
+        }
+        System.out.println("RecommendationServerTest ok");
+    }
+
+    // a line the ratings file would reject is a 400 before any line of the request is queued; good lines are
+    // echoed with their tokens split on blanks
+    static void badLinesAddNobody(String layout) throws Exception {
+        boolean sparse = layout.equals("--sparse");
+        String[] ratings = {"T", "T 1 2 3", "A 3 2 1", "B 0 4 5"};
+        try (RecommendationService service = RecommendationService.load(Check.file("ratings.txt", ratings),
+                Options.parse(new String[]{layout}, 0), 16)) {
+            HttpServer server = new RecommendationServer(service).start(new InetSocketAddress("127.0.0.1", 0));
+            try {
+                String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/AddCustomer";
+                String[][] bad = {
+                        {"Zed 0:3", "song number must be at least 1 but was 0"},
+                        {"Zed 1 2 128", "rating must be between 0 and 127 but was 128"},
+                        {"Zed 1 -2 3", "expected a rating but found '-2'"},
+                        {"Zed x:2", "expected a song number but found 'x:2'"},
+                        {"Zed 1 2 3 4", "song4 is outside the catalog of 3 songs"},
+                        {"Zed 4:1", "song4 is outside the catalog of 3 songs"},
+                        {"Zed 1 2", "no rating for song3 of the catalog of 3 songs"},
+                };
+                for (String[] line : bad) {
+                    if (sparse && line[1].contains("catalog")) continue; // a sparse store has no catalog to leave
+                    Check.equal("400 bad ratings in \"" + line[0] + "\": " + line[1] + "\n",
+                            post(url, "C 1 1 1\n  " + line[0] + "  \n"), "answer to " + line[0]);
+                    Check.equal(3, service.customers(), "customers after " + line[0]);
+                }
+                Check.equal("200 AddCustomer C 1 1 1\nAddCustomer D 2:4 3:1\n",
+                        post(url, "  C\t1  1 1 \r\nD 2:4 3:1\n\n"), "answer to good lines");
+                Check.equal(5, service.customers(), "customers after the good lines");
+            } finally {
+                server.stop(0);
+            }
+        }
+    }
+
+    // a RecommendSongs asked after an AddCustomer was answered does not share a lookup that started before it
+    static void recommendAfterAnAddSeesIt(String layout) throws Exception {
+        String[] ratings = {"T", "T 1 0 0", "A 0 3 0", "B 0 3 0"};
+        Options options = Options.parse(new String[]{layout}, 0);
+        File file = Check.file("ratings.txt", ratings);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        // the first lookup waits before it reads the store, long enough for the add to be published meanwhile
+        try (RecommendationService service = new RecommendationService(RecommendationSystem.load(file, options),
+                RecommendationSystem.load(file, options), 16) {
+            @Override
+            String recommendSongs(String name) {
+                if (started.getCount() > 0) {
+                    started.countDown();
+                    RecommendationServiceTest.await(release);
+                }
+                return super.recommendSongs(name);
+            }
+        }) {
+            RecommendationServer server = new RecommendationServer(service);
+            CompletableFuture<String> slow = CompletableFuture.supplyAsync(() -> server.recommend("A"));
+            try {
+                started.await();
+                RatingRow row = new RatingRow().parse(new String[]{"0", "5", "5"}, 0);
+                Check.equal(true, service.addCustomer("C", row).get(), "C added with " + layout);
+                CompletableFuture<String> after = CompletableFuture.supplyAsync(() -> server.recommend("A"));
+                Check.equal("RecommendSongs C song3 5 ", after.get(30, TimeUnit.SECONDS), "answer after the add with " + layout);
+            } finally {
+                release.countDown();
+            }
+            Check.equal("RecommendSongs C song3 5 ", slow.get(), "answer of the slow lookup with " + layout);
+        }
+    }
+
+    // "<status> <body>" of a POST of body to url
+    static String post(String url, String body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) URI.create(url).toURL().openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        int status = connection.getResponseCode();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            in.transferTo(bytes);
+        }
+        return status + " " + new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
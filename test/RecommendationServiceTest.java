@@ -0,0 +1,92 @@
+/**
+ * Description of this file : tests of RecommendationService, the two copies of a session behind one writer.
+ */
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+
+class RecommendationServiceTest {
+
+    public static void main(String[] args) throws Exception {
+        for (String layout : new String[]{"--scalar", "--sparse"}) {
+            failedChangesLeaveBothCopiesEqual(layout);
+        }
+        System.out.println("RecommendationServiceTest ok");
+    }
+
+    // one batch with changes the store rejects between good ones: both copies end with the good ones only
+    static void failedChangesLeaveBothCopiesEqual(String layout) throws Exception {
+        String[] ratings = {"T", "T 1 2 3", "A 3 2 1", "B 0 4 5"};
+        try (RecommendationService service = RecommendationService.load(Check.file("ratings.txt", ratings),
+                Options.parse(new String[]{layout}, 0), 16)) {
+            // a reader on the served copy holds the writer after its next switch, so the changes queued meanwhile
+            // make up the following batch
+            CountDownLatch reading = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            Thread reader = new Thread(() -> service.read(session -> {
+                reading.countDown();
+                await(release);
+                return null;
+            }));
+            reader.start();
+            reading.await();
+            List<CompletableFuture<Boolean>> batch = new ArrayList<>();
+            try {
+                service.removeCustomer("nobody").get();
+                batch.add(service.addCustomer("C", row(0, 5, 2, 4)));
+                batch.add(service.addCustomer("Zed", row(-1, 3))); // "0:3", no song 0
+                batch.add(service.updateRating("A", 0, 5));
+                batch.add(service.addCustomer("D", row(0, 300))); // rating outside a byte
+                batch.add(service.updateRating("B", 3, 4)); // outside the catalog
+                batch.add(service.addCustomer("E", row(0, 2, 1, 2, 2, 2)));
+            } finally {
+                release.countDown();
+                reader.join();
+            }
+            Check.equal(true, batch.get(0).get(), "C added");
+            fails(batch.get(1), "song number must be at least 1 but was 0");
+            Check.equal(true, batch.get(2).get(), "A updated");
+            fails(batch.get(3), "rating must be between 0 and 127 but was 300");
+            Check.equal(false, batch.get(4).get(), "B updated");
+            Check.equal(true, batch.get(5).get(), "E added");
+            String served = table(service);
+            service.removeCustomer("nobody").get(); // publishes the other copy
+            Check.equal(served, table(service), "table of the other copy with " + layout);
+            Check.equal(5, service.customers(), "customers with " + layout);
+            Check.that(!served.contains("Zed") && !served.contains(" D "), "rejected customers in the table: " + served);
+        }
+    }
+
+    // row of (0 based song, rating) pairs
+    static RatingRow row(int... pairs) {
+        RatingRow row = new RatingRow();
+        for (int i = 0; i < pairs.length; i += 2) row.add(pairs[i], pairs[i + 1]);
+        return row;
+    }
+
+    static void fails(CompletableFuture<Boolean> change, String message) throws InterruptedException {
+        try {
+            change.get();
+        } catch (ExecutionException e) {
+            Check.equal(message, e.getCause().getMessage(), "error");
+            return;
+        }
+        throw new AssertionError("expected the change to fail with \"" + message + "\"");
+    }
+
+    static String table(RecommendationService service) {
+        return new String(service.table(), StandardCharsets.UTF_8);
+    }
+
+    static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/**
+ * Description of this file : tests of the actions loop of RecommendationSystem, run on a session in this process.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+class RecommendationSystemTest {
+
+    public static void main(String[] args) throws Exception {
+        for (String layout : new String[]{"--scalar", "--sparse"}) {
+            updateOutsideTheCatalogIsAWrongQuery(layout);
+        }
+        System.out.println("RecommendationSystemTest ok");
+    }
+
+    // a song past the catalog or a rating the store cannot hold changes nothing and the run goes on
+    static void updateOutsideTheCatalogIsAWrongQuery(String layout) throws Exception {
+        String[] ratings = {"T", "T 1 2 3", "A 3 2 1", "B 0 4 5"};
+        Session session = load(ratings, layout);
+        String answers = run(session, "UpdateRating A 4 5", "UpdateRating B song9 1", "UpdateRating A 1 200",
+                "UpdateRating A 1 128", "UpdateRating A 2 5", "RecommendSongs", "PrintCustomerDistanceRatings");
+        String expected = run(load(ratings, layout), "UpdateRating A 2 5", "RecommendSongs", "PrintCustomerDistanceRatings");
+        Check.equal("wrong query\nwrong query\nwrong query\nwrong query\n" + expected, answers, "answers with " + layout);
+        Check.equal(3, session.store.songCount(), "songs with " + layout);
+    }
+
+    static Session load(String[] ratings, String... options) throws Exception {
+        return RecommendationSystem.load(Check.file("ratings.txt", ratings), Options.parse(options, 0));
+    }
+
+    // answers of the session to the actions, as the program prints them
+    static String run(Session session, String... actions) throws Exception {
+        File file = Check.file("actions.txt", actions);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes, true, "UTF-8");
+        try (ActionReader reader = new ActionReader(file)) {
+            Action action = new Action();
+            while (reader.next(action)) RecommendationSystem.runAction(action, session, out);
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
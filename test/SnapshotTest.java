@@ -0,0 +1,113 @@
+/**
+ * Description of this file : tests of the binary snapshot written by --snapshot and SaveSnapshot.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+class SnapshotTest {
+
+    static final String[] RATINGS = {"T", "T 1 2 3 0", "A 3 2 1 0", "B 0 4 5 1", "A 1 1 1 1", "C 0 0 0 4", "D 5 0 0 2"};
+    static final String[] CHANGES = {"AddCustomer E 2 2 0 1", "UpdateRating B 2 1", "RemoveCustomer A",
+            "RecommendSongs", "AddCustomer A 0 3 3 0", "RemoveCustomer C"};
+    static final String[] LATER = {"RecommendSongs", "PrintCustomerDistanceRatings", "RecommendSongs A",
+            "AddCustomer F 1 2 3 4", "RemoveCustomer D", "RecommendSongs", "PrintCustomerDistanceRatings"};
+
+    public static void main(String[] args) throws Exception {
+        for (String layout : new String[]{"--scalar", "--sparse"}) {
+            readGivesBackTheSession(layout);
+            everyDamagedByteIsFound(layout);
+        }
+        System.out.println("SnapshotTest ok");
+    }
+
+    // a session with added, changed and removed customers comes back with the same customers, distances, heap
+    // order, customer list and action count, and answers the next actions like the session it was written from
+    static void readGivesBackTheSession(String layout) throws Exception {
+        Session session = RecommendationSystem.load(Check.file("ratings.txt", RATINGS), Options.parse(new String[]{layout}, 0));
+        run(session, CHANGES);
+        File file = new File(Files.createTempDirectory("test").toFile(), "run.snapshot");
+        file.deleteOnExit();
+        Snapshot.write(file, session, session.actionsDone);
+        Session restored = RecommendationSystem.restore(Options.parse(new String[]{layout, "--snapshot=" + file}, 0), MinHeap::new);
+        Check.that(file.delete(), "snapshot deleted");
+
+        CustomerStore store = session.store, copy = restored.store;
+        Check.equal(store.size(), copy.size(), "customers with " + layout);
+        Check.equal(store.songCount(), copy.songCount(), "songs with " + layout);
+        Check.equal(session.targetCus, restored.targetCus, "target with " + layout);
+        Check.equal((long) CHANGES.length, restored.actionsDone, "actions done with " + layout);
+        for (int id = 0; id < store.size(); id++) {
+            Check.equal(store.name(id), copy.name(id), "name of " + id);
+            Check.equal(store.distance(id), copy.distance(id), "distance of " + id);
+            Check.equal(store.isRemoved(id), copy.isRemoved(id), "removed " + id);
+            for (int song = 0; song < store.songCount(); song++) {
+                Check.equal(store.rating(id, song), copy.rating(id, song), "rating of " + id + " for song" + (song + 1));
+            }
+        }
+        Check.equal(-1, copy.idOf("C"), "id of the removed C with " + layout);
+        Check.equal(store.idOf("A"), copy.idOf("A"), "id of the newest A with " + layout);
+        Check.that(Arrays.equals(session.heap.toArray(), restored.heap.toArray()), "heap order with " + layout);
+        Check.equal(order(session), order(restored), "customer list with " + layout);
+        Check.equal(run(session, LATER), run(restored, LATER), "answers after the snapshot with " + layout);
+    }
+
+    // one bit changed anywhere in the file, or a file cut short, is an IllegalArgumentException naming the file,
+    // never a session
+    static void everyDamagedByteIsFound(String layout) throws Exception {
+        Session session = RecommendationSystem.load(Check.file("ratings.txt", RATINGS), Options.parse(new String[]{layout}, 0));
+        run(session, CHANGES);
+        File file = new File(Files.createTempDirectory("test").toFile(), "run.snapshot");
+        file.deleteOnExit();
+        Snapshot.write(file, session, session.actionsDone);
+        byte[] good = Files.readAllBytes(file.toPath());
+        for (int i = 0; i < good.length; i++) {
+            for (int bit : new int[]{0, 7}) {
+                byte[] damaged = good.clone();
+                damaged[i] ^= 1 << bit;
+                rejected(file, damaged, "bit " + bit + " of byte " + i + " changed with " + layout);
+            }
+        }
+        for (int length : new int[]{0, 7, 20, good.length / 2, good.length - 8, good.length - 1}) {
+            rejected(file, Arrays.copyOf(good, length), "cut to " + length + " bytes with " + layout);
+        }
+    }
+
+    // reading the bytes as a snapshot must fail with an error naming the file
+    static void rejected(File file, byte[] bytes, String what) throws IOException {
+        Files.write(file.toPath(), bytes);
+        try {
+            Snapshot.read(file);
+        } catch (IllegalArgumentException e) {
+            Check.that(e.getMessage().startsWith("run.snapshot: "), "error naming the file: " + e.getMessage());
+            return;
+        }
+        throw new AssertionError("snapshot read with " + what);
+    }
+
+    // customers in the order PrintCustomerDistanceRatings lists them
+    static String order(Session session) {
+        StringBuilder ids = new StringBuilder();
+        session.customerList.forEach(id -> ids.append(id).append(' '));
+        return ids.toString();
+    }
+
+    // answers of the session to the actions, counting them as answered
+    static String run(Session session, String... actions) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes, true, "UTF-8");
+        try (ActionReader reader = new ActionReader(Check.file("actions.txt", actions))) {
+            Action action = new Action();
+            while (reader.next(action)) {
+                RecommendationSystem.runAction(action, session, out);
+                RecommendationSystem.answered(session, 1);
+            }
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
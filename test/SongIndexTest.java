@@ -0,0 +1,57 @@
+/**
+ * Description of this file : tests of the inverted song -> customers index behind --index.
+ */
+
+import java.util.Random;
+
+class SongIndexTest {
+
+    public static void main(String[] args) throws Exception {
+        for (boolean sparse : new boolean[]{false, true}) {
+            for (boolean whileLoading : new boolean[]{false, true}) {
+                scoresMatchCalculate(sparse, whileLoading);
+            }
+        }
+        System.out.println("SongIndexTest ok");
+    }
+
+    // scoreAll gives every customer the distance calculate gives, -1 for those sharing no song with the target,
+    // whether the index was kept while adding or built afterwards, and after ratings change and customers leave
+    static void scoresMatchCalculate(boolean sparse, boolean whileLoading) {
+        Random random = new Random(sparse ? 3 : 4);
+        CustomerStore store = CustomerStore.create(sparse);
+        if (whileLoading) store.enableSongIndex();
+        int songs = 40;
+        for (int id = 0; id < 300; id++) {
+            RatingRow row = new RatingRow();
+            for (int song = 0; song < songs; song++) {
+                row.add(song, random.nextInt(10) < 8 ? 0 : 1 + random.nextInt(id % 7 == 0 ? 127 : 5));
+            }
+            store.add("C" + id, row);
+        }
+        SongIndex index = store.enableSongIndex();
+        int target = 17;
+        check(store, index, target, "loaded");
+        for (int i = 0; i < 200; i++) {
+            int id = random.nextInt(store.size());
+            store.setRating(id, random.nextInt(songs), random.nextInt(3) == 0 ? 0 : 1 + random.nextInt(5));
+        }
+        for (int i = 0; i < 20; i++) {
+            int id = random.nextInt(store.size());
+            if (id != target && !store.isRemoved(id)) store.remove(id);
+        }
+        check(store, index, target, "changed");
+    }
+
+    static void check(CustomerStore store, SongIndex index, int target, String when) {
+        index.scoreAll(target);
+        int measurable = 0;
+        for (int id = 0; id < store.size(); id++) {
+            if (id == target) continue;
+            double expected = store.calculate(target, id);
+            Check.equal(expected, store.distance(id), "distance of " + id + " when " + when);
+            if (expected != -1) measurable++;
+        }
+        Check.that(measurable > 0 && measurable < store.size() - 1, "customers both in and out of reach when " + when);
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ * Description of this file : tests of the PrintCustomerDistanceRatings table writer against the printf formatting
+ * it replaces.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Random;
+
+class TableWriterTest {
+
+    public static void main(String[] args) throws Exception {
+        for (boolean sparse : new boolean[]{false, true}) {
+            sameBytesAsPrintf(sparse);
+        }
+        System.out.println("TableWriterTest ok");
+    }
+
+    // every distance and name comes out as "%-6.3f" or "%-6s" and "%-11s" would print it: -1, ties at the
+    // third decimal, negative distances, distances of 10 and more, names shorter and longer than 11 and not ascii
+    static void sameBytesAsPrintf(boolean sparse) {
+        double[] distances = {-1, 0, 0.0005, 0.0015, 1.0625, 2.9995, 3.14159, 9.9995, 9.99949, 10, 10.0005, 64.5,
+                99.9999, 123.4567, 999999.9995, 1e15, 1e20, -0.5, -2.25, -1.0005, -12.345, Double.MAX_VALUE};
+        String[] names = {"A", "Bob", "Christopher", "Maximiliano_X", "Zo\u00eb", "\u65e5\u672c"};
+        Random random = new Random(11);
+        CustomerStore store = CustomerStore.create(sparse);
+        RatingRow row = new RatingRow();
+        row.add(0, 5);
+        row.add(2, 127);
+        store.add("T", row);
+        IdList customers = new IdList();
+        int count = distances.length + 200;
+        for (int i = 0; i < count; i++) {
+            row.clear();
+            row.add(random.nextInt(3), 1 + random.nextInt(127));
+            row.width = 3;
+            String name = i < names.length ? names[i] : "C" + i;
+            int id = store.add(name, row);
+            store.setDistance(id, i < distances.length ? distances[i] : random.nextInt(100000) / 64.0);
+            customers.add(id);
+        }
+        customers.sort(store::compareName);
+        NameOrderedList list = new NameOrderedList(store, customers);
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        new TableWriter(actual).writeTable(store, 0, list);
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(expected);
+        out.println("PrintCustomerDistanceRatings");
+        out.printf("%-6s", " ");
+        printRow(out, store, 0);
+        list.forEach(id -> {
+            double d = store.distance(id);
+            if (d == -1) out.printf("%-6s", "-----");
+            else out.printf("%-6.3f", d);
+            printRow(out, store, id);
+        });
+        out.flush();
+        Check.that(Arrays.equals(expected.toByteArray(), actual.toByteArray()),
+                "table with sparse " + sparse + ":\n" + expected + "\nbut was\n" + actual);
+    }
+
+    // the name and ratings of a customer the way the program printed them before TableWriter
+    static void printRow(PrintStream out, CustomerStore store, int id) {
+        out.printf("%-11s", store.name(id));
+        for (int song = 0; song < store.songCount(); song++) {
+            out.print(store.rating(id, song) + " ");
+        }
+        out.println();
+    }
+}
@@ -0,0 +1,121 @@
+/**
+ * Description of this file : tests of RecommendSongs over the K nearest customers behind --top-k.
+ */
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+class TopKRecommenderTest {
+
+    public static void main(String[] args) throws Exception {
+        for (boolean sparse : new boolean[]{false, true}) {
+            tiesGoToTheLowerSong(sparse);
+            scoresMatchTheDefinition(sparse);
+        }
+        System.out.println("TopKRecommenderTest ok");
+    }
+
+    // equal scores are listed lower song first, also when only one of them fits in the answer
+    static void tiesGoToTheLowerSong(boolean sparse) throws Exception {
+        String layout = sparse ? "--sparse" : "--scalar";
+        Session session = load(layout, "T", "T 3 0 0 0 0", "A 3 4 0 5 4", "B 2 0 0 0 0", "C 1 5 5 0 0");
+        // A is at 1, B at 2 and C at 3: A gives song4 5 and song2 and song5 4 each, C adds 5/3 to song2 and song3
+        Check.equal("RecommendSongs song4 5.000", recommend(session, 1, 1), "k 1 n 1 with " + layout);
+        Check.equal("RecommendSongs song4 5.000 song2 4.000", recommend(session, 1, 2), "k 1 n 2 with " + layout);
+        Check.equal("RecommendSongs song4 5.000 song2 4.000 song5 4.000", recommend(session, 2, 5), "k 2 with " + layout);
+        Check.equal("RecommendSongs song2 5.667 song4 5.000 song5 4.000 song3 1.667", recommend(session, 3, 5),
+                "k 3 with " + layout);
+        Check.equal("RecommendSongs song4 4.000", recommend(load(layout, "T", "T 3 0 0 0 0", "A 3 0 0 4 4"), 1, 1),
+                "tie for the only place with " + layout);
+        Check.equal("RecommendSongs none", recommend(load(layout, "T", "T 3 1", "B 2 5"), 3, 3),
+                "nothing liked and unrated with " + layout);
+        Check.equal("RecommendSongs none", recommend(load(layout, "T", "T 3 0", "B 0 5"), 3, 3),
+                "nobody measurable with " + layout);
+    }
+
+    // on random customers the answers for the target and for named customers are the definition computed
+    // directly: the K nearest measurable customers, rating / distance summed per liked song the customer did not
+    // rate, the N best by score then song number
+    static void scoresMatchTheDefinition(boolean sparse) {
+        Random random = new Random(16);
+        CustomerStore store = CustomerStore.create(sparse);
+        IdList customers = new IdList();
+        int songs = 12;
+        RatingRow row = new RatingRow();
+        for (int id = 0; id < 150; id++) {
+            row.clear();
+            for (int song = 0; song < songs; song++) {
+                if (random.nextInt(3) == 0) row.add(song, 1 + random.nextInt(5));
+            }
+            row.width = songs;
+            // names in another order than ids, distinct so heap ties on distance have one order
+            store.add("C" + (id * 37 % 150), row);
+            if (id > 0) customers.add(id);
+        }
+        int target = 0;
+        RecommendationSystem.scoreCustomers(store, target, null);
+        MinHeap heap = new MinHeap(store);
+        List<Integer> nearest = new ArrayList<>();
+        for (int i = 0; i < customers.size(); i++) {
+            if (store.distance(customers.get(i)) == -1) continue;
+            heap.insert(customers.get(i));
+            nearest.add(customers.get(i));
+        }
+        nearest.sort((a, b) -> store.compare(a, b));
+        NeighbourCache neighbours = new NeighbourCache(store, 32, 1 << 20);
+        for (int k : new int[]{1, 3, 10}) {
+            for (int n : new int[]{1, 5}) {
+                TopKRecommender topK = new TopKRecommender(store, k, n);
+                Check.equal(expected(store, target, nearest, k, n, store::distance), topK.recommend(heap, target),
+                        "target with k " + k + " n " + n);
+                for (int asked = 1; asked < 150; asked += 37) {
+                    int id = asked;
+                    List<Integer> others = new ArrayList<>();
+                    for (int other = 0; other < store.size(); other++) {
+                        if (other != id && store.calculate(id, other) != -1) others.add(other);
+                    }
+                    others.sort(Comparator.<Integer>comparingDouble(other -> store.calculate(id, other))
+                            .thenComparing((a, b) -> store.compareNameThenId(a, b)));
+                    Check.equal(expected(store, id, others, k, n, other -> store.calculate(id, other)),
+                            topK.recommend(neighbours, id), "customer " + id + " with k " + k + " n " + n);
+                }
+            }
+        }
+    }
+
+    static Session load(String layout, String... ratings) throws Exception {
+        return RecommendationSystem.load(Check.file("ratings.txt", ratings), Options.parse(new String[]{layout}, 0));
+    }
+
+    // answer of the recommender over the session's heap for its target
+    static String recommend(Session session, int k, int n) {
+        return new TopKRecommender(session.store, k, n).recommend(session.heap, session.targetCus);
+    }
+
+    interface Distance {
+        double of(int id);
+    }
+
+    // the answer by definition, scores summed in neighbour order like the recommender
+    static String expected(CustomerStore store, int target, List<Integer> nearest, int k, int n, Distance distance) {
+        Map<Integer, Double> scores = new LinkedHashMap<>();
+        for (int id : nearest.subList(0, Math.min(k, nearest.size()))) {
+            for (int song = 0; song < store.songCount(); song++) {
+                int rating = store.rating(id, song);
+                if (rating >= 4 && store.rating(target, song) == 0) scores.merge(song, rating * (1 / distance.of(id)), Double::sum);
+            }
+        }
+        List<Map.Entry<Integer, Double>> best = new ArrayList<>(scores.entrySet());
+        best.sort(Map.Entry.<Integer, Double>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+        if (best.isEmpty()) return "RecommendSongs none";
+        StringBuilder sb = new StringBuilder("RecommendSongs");
+        for (Map.Entry<Integer, Double> e : best.subList(0, Math.min(n, best.size()))) {
+            sb.append(" song").append(e.getKey() + 1).append(' ').append(String.format("%.3f", e.getValue()));
+        }
+        return sb.toString();
+    }
+}
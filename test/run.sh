@@ -0,0 +1,23 @@
+#!/bin/sh
+# compile the program and the tests with every lint warning as an error, then run each *Test class.
+# usage : sh test/run.sh   (from anywhere; stops at the first failing test)
+set -e
+cd "$(dirname "$0")/.."
+out=$(mktemp -d)
+trap 'rm -rf "$out"' EXIT
+javac -Xlint:all -Werror -d "$out" *.java test/*.java
+for test in test/*Test.java; do
+    java -ea -cp "$out" "$(basename "$test" .java)"
+done
+# the benchmark once on a few customers in each layout, so it keeps building and running; the numbers mean nothing
+for layout in "" --sparse; do
+    java -cp "$out" Benchmark --customers=200 --songs=16 --rated=4 --samples=2 --warmup=1 --ann=4 --k=5 --readers=1 $layout > /dev/null
+done
+echo "Benchmark ok"
+# customers of the same name at the same distance, which the shards must order like the single heap
+printf 'T\nT 3 3 0 0\nB 3 3 0 0\nX 3 2 5 0\nX 3 2 4 4\n' > "$out/ratings.txt"
+printf 'RecommendSongs\nAddCustomer X 3 2 0 4\nRecommendSongs B\nRemoveCustomer X\nRecommendSongs\nPrintCustomerDistanceRatings\n' > "$out/actions.txt"
+for program in "" --enhanced; do
+    java -cp "$out" ShardHarness "$out/ratings.txt" "$out/actions.txt" --shards=2 $program > /dev/null
+done
+echo "ShardHarness ok"